@@ -55,7 +55,6 @@ public class Usb4JavaDevice implements ConnectionInterface {
   protected String manufacturerName;
   protected String serialNumber;
   protected UsbDevice device;
-  private List<UsbDevice> usbDeviceList = new ArrayList<UsbDevice>();
 
   private AtomicBoolean atomicOpen = new AtomicBoolean(false);
 
@@ -86,11 +85,12 @@ public class Usb4JavaDevice implements ConnectionInterface {
     // Get the USB services and dump information about them
 
     UsbServices services;
+    List<UsbDevice> usbDeviceList = new ArrayList<UsbDevice>();
     try {
       services = UsbHostManager.getUsbServices();
 
       // Reentrant method that will search all devices and fill our usbDeviceList.
-      listDevices(services.getRootUsbHub());
+      listDevices(services.getRootUsbHub(), usbDeviceList);
     } catch (UsbException e) {
       LOGGER.log(Level.SEVERE, "Couldn't list devices. Exception: " + e.getMessage());
       return new ArrayList<ConnectionInterface>();
@@ -99,7 +99,7 @@ public class Usb4JavaDevice implements ConnectionInterface {
     List<ConnectionInterface> deviceList = new ArrayList<ConnectionInterface>();
 
     LOGGER.log(Level.FINE, "Listing connected devices...");
-    for (UsbDevice device : this.usbDeviceList) {
+    for (UsbDevice device : usbDeviceList) {
 
       Usb4JavaDevice board = new Usb4JavaDevice();
       board.device = device;
@@ -152,19 +152,19 @@ public class Usb4JavaDevice implements ConnectionInterface {
     return deviceList;
   }
 
-  private void listDevices(final UsbDevice device) {
+  private void listDevices(final UsbDevice device, List<UsbDevice> usbDeviceList) {
     // If device is a hub then process all child devices by calling this
     // reentrant method.
     if (device.isUsbHub()) {
       UsbHub hub = (UsbHub) device;
       for (UsbDevice child : (List<UsbDevice>) hub.getAttachedUsbDevices()) {
-        listDevices(child);
+        listDevices(child, usbDeviceList);
       }
     }
 
     // If this is not a hub then add this device to usbDeviceList.
     else {
-      this.usbDeviceList.add(device);
+      usbDeviceList.add(device);
       LOGGER.log(Level.FINE, device.toString());
     }
   }
@@ -17,10 +17,13 @@ package br.org.certi.jocd;
 
 import br.org.certi.jocd.board.MbedBoard;
 import br.org.certi.jocd.dapaccess.connectioninterface.ConnectionInterface;
+import br.org.certi.jocd.tools.BoardProgressUpdateInterface;
 import br.org.certi.jocd.tools.FlashTool;
 import br.org.certi.jocd.tools.ProgressUpdateInterface;
+import java.io.File;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,10 +37,18 @@ public class Jocd {
   private final static Logger LOGGER = Logger.getLogger(CLASS_NAME);
 
   /**
-   * Connection Interface to be used by jOCD communication with CMSIS-DAP board.
+   * Connection Interface used by jOCD to enumerate the connected CMSIS-DAP boards. Each opened
+   * board keeps its own connection, so many boards can be used at the same time.
    */
   public static ConnectionInterface connectionInterface = null;
 
+  /**
+   * Directory where jOCD keeps the CRC of each flash page it programmed, one file per board. When
+   * set, reprogramming a board with a mostly unchanged image needs less analysis of its flash. If
+   * null, no cache is used.
+   */
+  public static File flashCacheDirectory = null;
+
   /**
    * Error codes from jOCD.
    */
@@ -111,4 +122,21 @@ public class Jocd {
     FlashTool tool = new FlashTool();
     return tool.flashBoard(file, progressUpdate, uniqueId);
   }
+
+  /**
+   * Flashes the specified file in all the boards specified by the provided unique IDs. The boards
+   * are flashed concurrently.
+   *
+   * @param file filepath of the file that should be flashed.
+   * @param uniqueIds unique ID of each board where to flash file.
+   * @param progressUpdate callback interface for reporting the flashing progress of each board.
+   * @param threads maximum number of boards flashed at the same time. If less than 1, all boards
+   * are flashed at the same time.
+   * @return the error code of the flash operation of each board.
+   */
+  public static Map<String, ErrorCode> flashBoards(String file, List<String> uniqueIds,
+      BoardProgressUpdateInterface progressUpdate, int threads) {
+    FlashTool tool = new FlashTool();
+    return tool.flashBoards(file, uniqueIds, progressUpdate, threads);
+  }
 }
@@ -189,10 +189,10 @@ public class MbedBoard extends Board {
           // Leave the loop.
           break;
         }
-
-        // Replace the full list for the new one (containing only the selected board).
-        allBoards = selectedBoard;
       }
+
+      // Replace the full list for the new one (containing only the selected board).
+      allBoards = selectedBoard;
     }
 
     // We should have at least one board. If we don't have, return.
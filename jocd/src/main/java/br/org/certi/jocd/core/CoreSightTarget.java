@@ -19,6 +19,7 @@ import br.org.certi.jocd.coresight.AccessPort;
 import br.org.certi.jocd.coresight.AhbAp;
 import br.org.certi.jocd.coresight.CortexM;
 import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.dapaccess.Batch;
 import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import java.util.ArrayList;
@@ -134,6 +135,11 @@ public class CoreSightTarget extends Target {
     this.getSelectedCore().flush();
   }
 
+  @Override
+  public Batch batch() throws Error {
+    return this.getSelectedCore().batch();
+  }
+
   @Override
   public void halt() throws TimeoutException, Error {
     this.getSelectedCore().halt();
@@ -156,11 +162,34 @@ public class CoreSightTarget extends Target {
     this.getSelectedCore().writeMemory(address, value, transferSize);
   }
 
+  @Override
+  public long readMemoryNow(long address, Integer transferSize) throws TimeoutException, Error {
+    return this.getSelectedCore().readMemoryNow(address, transferSize);
+  }
+
+  @Override
+  public PendingRead readMemoryLater(long address, Integer transferSize)
+      throws TimeoutException, Error {
+    return this.getSelectedCore().readMemoryLater(address, transferSize);
+  }
+
+  @Override
+  public boolean readMemoryMatch(long address, long expected, long mask)
+      throws TimeoutException, Error {
+    return this.getSelectedCore().readMemoryMatch(address, expected, mask);
+  }
+
   @Override
   public byte[] readBlockMemoryUnaligned8(long address, int size) throws TimeoutException, Error {
     return this.getSelectedCore().readBlockMemoryUnaligned8(address, size);
   }
 
+  @Override
+  public void readBlockMemoryUnaligned8(long address, byte[] dst, int offset, int size)
+      throws TimeoutException, Error {
+    this.getSelectedCore().readBlockMemoryUnaligned8(address, dst, offset, size);
+  }
+
   @Override
   public long[] readBlockMemoryAligned32(long address, int size) throws TimeoutException, Error {
     return this.getSelectedCore().readBlockMemoryAligned32(address, size);
@@ -171,11 +200,29 @@ public class CoreSightTarget extends Target {
     this.getSelectedCore().writeBlockMemoryUnaligned8(address, data);
   }
 
+  @Override
+  public void writeBlockMemoryUnaligned8(long address, byte[] data, int offset, int size)
+      throws TimeoutException, Error {
+    this.getSelectedCore().writeBlockMemoryUnaligned8(address, data, offset, size);
+  }
+
   @Override
   public void writeBlockMemoryAligned32(long address, long[] words) throws TimeoutException, Error {
     this.getSelectedCore().writeBlockMemoryAligned32(address, words);
   }
 
+  @Override
+  public void readBlockMemoryAligned32(long address, int[] dst, int offset, int length)
+      throws TimeoutException, Error {
+    this.getSelectedCore().readBlockMemoryAligned32(address, dst, offset, length);
+  }
+
+  @Override
+  public void writeBlockMemoryAligned32(long address, int[] words, int offset, int length)
+      throws TimeoutException, Error {
+    this.getSelectedCore().writeBlockMemoryAligned32(address, words, offset, length);
+  }
+
   @Override
   public void writeCoreRegister(CoreRegister reg, long word) throws TimeoutException, Error {
     this.getSelectedCore().writeCoreRegister(reg, word);
@@ -228,6 +275,11 @@ public class CoreSightTarget extends Target {
     return this.getSelectedCore().getState();
   }
 
+  @Override
+  public boolean waitUntilStopped() throws TimeoutException, Error {
+    return this.getSelectedCore().waitUntilStopped();
+  }
+
   @Override
   public void setVectorCatch(long enableMask) throws TimeoutException, Error {
     this.getSelectedCore().setVectorCatch(enableMask);
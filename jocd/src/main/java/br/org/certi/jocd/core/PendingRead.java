@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.core;
+
+import br.org.certi.jocd.dapaccess.dapexceptions.Error;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Handle to a read that was queued but not completed yet.
+ * With deferred transfers enabled, any number of reads can be queued and
+ * they will all be sent together. Calling get() on the first one flushes the
+ * queue, so the others are resolved without any extra USB round trip.
+ */
+public abstract class PendingRead {
+
+  private boolean done = false;
+  private long value;
+
+  /*
+   * Function applied to the value of a read. See map().
+   */
+  public interface Function {
+
+    long apply(long value) throws TimeoutException, Error;
+  }
+
+  /*
+   * Complete the read (if needed) and return its value.
+   * The value is cached, so it can be called more than once.
+   */
+  public final long get() throws TimeoutException, Error {
+    if (!this.done) {
+      this.value = this.resolve();
+      this.done = true;
+    }
+    return this.value;
+  }
+
+  /*
+   * Complete the read. Called only once.
+   */
+  protected abstract long resolve() throws TimeoutException, Error;
+
+  /*
+   * Return a pending read whose value is function applied to the value of this one.
+   */
+  public PendingRead map(final Function function) {
+    final PendingRead source = this;
+    return new PendingRead() {
+      @Override
+      protected long resolve() throws TimeoutException, Error {
+        return function.apply(source.get());
+      }
+    };
+  }
+
+  /*
+   * Return a read that is already completed.
+   */
+  public static PendingRead of(final long value) {
+    return new PendingRead() {
+      @Override
+      protected long resolve() {
+        return value;
+      }
+    };
+  }
+
+  /*
+   * Complete all the reads, in order, and return their values.
+   */
+  public static long[] getAll(List<PendingRead> reads) throws TimeoutException, Error {
+    long[] values = new long[reads.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = reads.get(i).get();
+    }
+    return values;
+  }
+
+  public static long[] getAll(PendingRead[] reads) throws TimeoutException, Error {
+    long[] values = new long[reads.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = reads[i].get();
+    }
+    return values;
+  }
+}
@@ -15,11 +15,11 @@
  */
 package br.org.certi.jocd.core;
 
+import br.org.certi.jocd.dapaccess.Batch;
 import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
-import br.org.certi.jocd.dapaccess.Transfer;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.flash.Flash;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 
@@ -120,10 +120,24 @@ public class Target {
     this.flash = flash;
   }
 
+  /*
+   * Send all pending transfers. Inside a batch, this is postponed until the batch ends.
+   */
   public void flush() throws TimeoutException, Error {
+    if (this.link.inBatch()) {
+      return;
+    }
     this.link.flush();
   }
 
+  /*
+   * Open a batch scope: all transfers started before it is closed are sent together.
+   * See Batch.
+   */
+  public Batch batch() throws Error {
+    return this.link.batch();
+  }
+
   public void halt() throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
@@ -169,14 +183,45 @@ public class Target {
     throw new InternalError("Not implemented");
   }
 
-  public ArrayList<Object> readMemoryLater(long address, Integer transferSize)
+  /*
+   * Queue a memory read. Nothing is sent until the returned handle is
+   * resolved (or the link is flushed), so several reads can be queued and
+   * sent together.
+   */
+  public PendingRead readMemoryLater(long address, Integer transferSize)
       throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
 
-  public long readMemoryAsync(Transfer transfer, int numDp, long addr, Integer transferSize,
-      int num) throws TimeoutException, Error {
-    throw new InternalError("Not implemented");
+  /*
+   * Read a word until (word & mask) == expected, letting the probe repeat the read when it
+   * can. Return false if there was no match. By default the word is read once.
+   */
+  public boolean readMemoryMatch(long address, long expected, long mask)
+      throws TimeoutException, Error {
+    return (this.readMemoryNow(address, 32) & mask) == expected;
+  }
+
+  /*
+   * Read several memory locations, in order, with as few round trips as possible.
+   * If transferSizes is null, words are read.
+   */
+  @SuppressWarnings("try")
+  public long[] readMemoryGather(long[] addresses, int[] transferSizes)
+      throws TimeoutException, Error {
+    // Assert transferSizes == null || transferSizes.length == addresses.length.
+    if (transferSizes != null && transferSizes.length != addresses.length) {
+      throw new Error("readMemoryGather: transferSizes.length != addresses.length");
+    }
+
+    PendingRead[] reads = new PendingRead[addresses.length];
+    try (Batch batch = this.batch()) {
+      for (int i = 0; i < addresses.length; i++) {
+        reads[i] = this.readMemoryLater(addresses[i],
+            (transferSizes == null) ? 32 : transferSizes[i]);
+      }
+      return PendingRead.getAll(reads);
+    }
   }
 
   public long read32(long address) throws TimeoutException, Error {
@@ -187,8 +232,8 @@ public class Target {
     return readMemoryNow(address, 32);
   }
 
-  public void read32Later(long address) throws TimeoutException, Error {
-    readMemoryLater(address, 32);
+  public PendingRead read32Later(long address) throws TimeoutException, Error {
+    return readMemoryLater(address, 32);
   }
 
   public long read16(long address) throws TimeoutException, Error {
@@ -199,8 +244,15 @@ public class Target {
     return readMemoryNow(address, 16);
   }
 
-  public void read1Later(long address) throws TimeoutException, Error {
-    readMemoryLater(address, 16);
+  public PendingRead read16Later(long address) throws TimeoutException, Error {
+    return readMemoryLater(address, 16);
+  }
+
+  /*
+   * Kept for compatibility, use read16Later.
+   */
+  public PendingRead read1Later(long address) throws TimeoutException, Error {
+    return read16Later(address);
   }
 
   public long read8(long address) throws TimeoutException, Error {
@@ -211,14 +263,37 @@ public class Target {
     return readMemoryNow(address, 8);
   }
 
-  public void read8Later(long address) throws TimeoutException, Error {
-    readMemoryLater(address, 8);
+  public PendingRead read8Later(long address) throws TimeoutException, Error {
+    return readMemoryLater(address, 8);
   }
 
   public byte[] readBlockMemoryUnaligned8(long address, int size) throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
 
+  /*
+   * Read size bytes into dst, starting at offset.
+   */
+  public void readBlockMemoryUnaligned8(long address, byte[] dst, int offset, int size)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
+  /*
+   * Read dst.remaining() bytes into dst, advancing its position.
+   */
+  public void readBlockMemoryUnaligned8(long address, ByteBuffer dst)
+      throws TimeoutException, Error {
+    int size = dst.remaining();
+    if (dst.hasArray()) {
+      this.readBlockMemoryUnaligned8(address, dst.array(), dst.arrayOffset() + dst.position(),
+          size);
+      dst.position(dst.position() + size);
+    } else {
+      dst.put(this.readBlockMemoryUnaligned8(address, size));
+    }
+  }
+
   public long[] readBlockMemoryAligned32(long address, int size) throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
@@ -227,10 +302,34 @@ public class Target {
     throw new InternalError("Not implemented");
   }
 
+  /*
+   * Write size bytes from data, starting at offset.
+   */
+  public void writeBlockMemoryUnaligned8(long address, byte[] data, int offset, int size)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
   public void writeBlockMemoryAligned32(long address, long[] words) throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
 
+  /*
+   * Read length aligned words into dst, starting at offset.
+   */
+  public void readBlockMemoryAligned32(long address, int[] dst, int offset, int length)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
+  /*
+   * Write length aligned words from words, starting at offset.
+   */
+  public void writeBlockMemoryAligned32(long address, int[] words, int offset, int length)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
   public void reset(Boolean softwareReset)
       throws InterruptedException, TimeoutException, Error {
     throw new InternalError("Not implemented");
@@ -257,6 +356,14 @@ public class Target {
     return getState() == Target.State.TARGET_HALTED;
   }
 
+  /*
+   * Return true once the core is not running anymore. Targets that can may let the probe
+   * wait for the halt for a while before answering, so this can be polled in a loop.
+   */
+  public boolean waitUntilStopped() throws TimeoutException, Error {
+    return !this.isRunning();
+  }
+
   public long readCoreRegister(CoreRegister reg) throws TimeoutException, Error  {
     throw new InternalError("Not implemented");
   }
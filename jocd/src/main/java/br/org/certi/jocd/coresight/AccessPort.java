@@ -15,12 +15,11 @@
  */
 package br.org.certi.jocd.coresight;
 
+import br.org.certi.jocd.core.PendingRead;
 import br.org.certi.jocd.coresight.DebugPort.AP_REG;
 import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
-import br.org.certi.jocd.dapaccess.Transfer;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.dapaccess.dapexceptions.TransferError;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeoutException;
@@ -121,19 +120,29 @@ public class AccessPort {
   }
 
   public void initRomTable() throws TimeoutException, Error {
-    this.romTable = new RomTable(this);
-    this.romTable.init();
+    this.romTable = RomTable.discover(this);
   }
 
   public long readRegNow(long addr) throws TimeoutException, Error {
     return this.dp.readAPNow(((this.apNum << DebugPort.APSEL_SHIFT) | addr));
   }
 
-  public ArrayList<Object> readRegLater(long addr) throws TimeoutException, Error {
+  public PendingRead readRegLater(long addr) throws TimeoutException, Error {
     return this.dp.readAP(((this.apNum << DebugPort.APSEL_SHIFT) | addr));
   }
 
+  /*
+   * Queue a register read that the probe repeats until (value & mask) == expected.
+   */
+  public void readRegMatch(long addr, long expected, long mask) throws TimeoutException, Error {
+    this.dp.readAPMatch(((this.apNum << DebugPort.APSEL_SHIFT) | addr), expected, mask);
+  }
+
   public void writeReg(long addr, Long data) throws TimeoutException, Error {
+    this.writeReg(addr, data.longValue());
+  }
+
+  public void writeReg(long addr, long data) throws TimeoutException, Error {
     this.dp.writeAP((this.apNum << DebugPort.APSEL_SHIFT) | addr, data);
   }
 
@@ -154,13 +163,27 @@ public class AccessPort {
     throw new InternalError("Not implemented");
   }
 
-  public ArrayList<Object> readMemoryLater(long addr, Integer transferSize)
+  public PendingRead readMemoryLater(long addr, Integer transferSize)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
+  public long[] readMemoryGather(long[] addresses, int[] transferSizes)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
+  public void readBlockMemoryGather(long[] addresses, int[][] dst)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
+  public boolean readMemoryMatch(long addr, long expected, long mask)
       throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
 
-  public long readMemoryAsync(Transfer transfer, int numDp, long addr, Integer transferSize,
-      int num)
+  public void readMemoryMatchLater(long addr, long expected, long mask)
       throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
@@ -173,6 +196,16 @@ public class AccessPort {
     throw new InternalError("Not implemented");
   }
 
+  public void writeBlock32(long addr, int[] words, int offset, int length)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
+  public void readBlock32(long addr, int[] dst, int offset, int length)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
   public void write32(long addr, long value) throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
@@ -201,10 +234,20 @@ public class AccessPort {
     throw new InternalError("Not implemented");
   }
 
+  public void readBlockMemoryUnaligned8(long addr, byte[] dst, int offset, int size)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
   public void writeBlockMemoryUnaligned8(long addr, byte[] data) throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
 
+  public void writeBlockMemoryUnaligned8(long addr, byte[] data, int offset, int size)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
   public void writeBlockMemoryAligned32(long addr, long[] data) throws TimeoutException, Error {
     throw new InternalError("Not implemented");
   }
@@ -213,6 +256,16 @@ public class AccessPort {
     throw new InternalError("Not implemented");
   }
 
+  public void writeBlockMemoryAligned32(long addr, int[] words, int offset, int length)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
+  public void readBlockMemoryAligned32(long addr, int[] dst, int offset, int length)
+      throws TimeoutException, Error {
+    throw new InternalError("Not implemented");
+  }
+
   public void handleError(Error error, int num) throws Error, TimeoutException {
     throw new InternalError("Not implemented");
   }
@@ -118,6 +118,20 @@ public class CoreSightComponent {
     // Read Component ID and Peripheral ID registers. This is done as a single block
     // read for performance reasons.
     long[] regs = this.ap.readBlockMemoryAligned32(this.topAddress + PIDR4, IDR_COUNT);
+    this.decodeIdRegisters(regs);
+
+    if (this.valid && this.componentClass == CIDR_CORESIGHT_CLASS) {
+      long[] result = this.ap.readBlockMemoryAligned32(this.topAddress + DEVID, 2);
+      this.devid = result[0];
+      this.devtype = result[1];
+    }
+  }
+
+  /*
+   * Decode the IDR_COUNT ID registers read from PIDR4. DEVID and DEVTYPE, needed for CoreSight
+   * class components, are left to the caller.
+   */
+  public void decodeIdRegisters(long[] regs) {
     this.cidr = this.extractIdRegisterValue(regs, CIDR0_OFFSET);
     this.pidr = (this.extractIdRegisterValue(regs, PIDR4_OFFSET) << 32) | this
         .extractIdRegisterValue(regs, PIDR0_OFFSET);
@@ -147,18 +161,30 @@ public class CoreSightComponent {
       return;
     }
 
-    if (componentClass == CIDR_CORESIGHT_CLASS) {
-      long[] result = this.ap.readBlockMemoryAligned32(this.topAddress + DEVID, 2);
-      this.devid = result[0];
-      this.devtype = result[1];
-    }
-
     this.componentClass = componentClass;
     this.isRomTable = isRomTable;
     this.count4kb = count4kb;
     this.valid = true;
   }
 
+  /*
+   * Copy the ID registers, and what was decoded from them, from another instance of the same
+   * component.
+   */
+  public void copyIdRegisters(CoreSightComponent other) {
+    this.address = other.address;
+    this.topAddress = other.topAddress;
+    this.componentClass = other.componentClass;
+    this.isRomTable = other.isRomTable;
+    this.cidr = other.cidr;
+    this.pidr = other.pidr;
+    this.devtype = other.devtype;
+    this.devid = other.devid;
+    this.count4kb = other.count4kb;
+    this.name = other.name;
+    this.valid = other.valid;
+  }
+
   public long extractIdRegisterValue(long[] regs, int offset) {
     long result = 0;
     for (int i = 0; i < 4; i++) {
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.coresight;
+
+import br.org.certi.jocd.core.Target.CoreRegister;
+
+/*
+ * Values of all the core registers of a Cortex-M, read at once by CortexM.readCoreSnapshot.
+ * Values are raw, as returned by readCoreRegisterRaw.
+ */
+public class CoreSnapshot {
+
+  // DCRSR register numbers included in every snapshot: R0-R15, xPSR, MSP, PSP and CFBP.
+  private static final int[] CORE_REGISTERS = new int[]{
+      0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 20};
+  // FPSCR and S0-S31, only included if the core has an FPU.
+  private static final int FPSCR = 33;
+  private static final int S0 = 0x40;
+  private static final int FPU_REGISTER_COUNT = 32;
+
+  private final int[] values = new int[0x60];
+  private final boolean hasFpu;
+
+  /*
+   * Constructor.
+   */
+  public CoreSnapshot(boolean hasFpu) {
+    this.hasFpu = hasFpu;
+  }
+
+  /*
+   * Return the DCRSR register numbers to read for a snapshot.
+   */
+  public static int[] getRegisterNumbers(boolean hasFpu) {
+    if (!hasFpu) {
+      return CORE_REGISTERS.clone();
+    }
+
+    int[] numbers = new int[CORE_REGISTERS.length + 1 + FPU_REGISTER_COUNT];
+    System.arraycopy(CORE_REGISTERS, 0, numbers, 0, CORE_REGISTERS.length);
+    int pos = CORE_REGISTERS.length;
+    numbers[pos++] = FPSCR;
+    for (int i = 0; i < FPU_REGISTER_COUNT; i++) {
+      numbers[pos++] = S0 + i;
+    }
+    return numbers;
+  }
+
+  public boolean hasFpu() {
+    return this.hasFpu;
+  }
+
+  /*
+   * Return the value of a register. CONTROL, FAULTMASK, BASEPRI and PRIMASK are extracted from
+   * CFBP.
+   */
+  public long get(CoreRegister reg) {
+    long number = reg.getValue();
+    if ((number >= 0x40 || number == FPSCR) && !this.hasFpu) {
+      throw new InternalError("attempt to read FPU register without FPU");
+    }
+
+    // Special registers.
+    if ((number < 0) && (number >= -4)) {
+      long cfbp = this.getByNumber(CortexM.CortexMRegister.CFBP.getValue());
+      return (cfbp >> ((-number - 1) * 8)) & 0xFFL;
+    }
+    return this.getByNumber(number);
+  }
+
+  /*
+   * Return the value of a register by DCRSR register number.
+   */
+  public long getByNumber(long number) {
+    return this.values[(int) number] & 0xFFFFFFFFL;
+  }
+
+  void set(int number, long value) {
+    this.values[number] = (int) value;
+  }
+}
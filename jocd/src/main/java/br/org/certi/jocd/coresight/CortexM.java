@@ -16,15 +16,18 @@
 package br.org.certi.jocd.coresight;
 
 import br.org.certi.jocd.core.MemoryMap;
+import br.org.certi.jocd.core.PendingRead;
 import br.org.certi.jocd.core.Target;
+import br.org.certi.jocd.coresight.DebugPort.AP_REG;
+import br.org.certi.jocd.dapaccess.Batch;
 import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
-import br.org.certi.jocd.dapaccess.Transfer;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.debug.BreakpointManager;
 import br.org.certi.jocd.debug.breakpoints.SoftwareBreakpointProvider;
 import br.org.certi.jocd.util.Conversion;
 import br.org.certi.jocd.util.Mask;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -225,6 +228,21 @@ public class CortexM extends Target {
   public static final long DBGKEY = (0xA05FL << 16);
 
   private int runToken = 0;
+  // runToken at which the core was last seen halted, -1 if never.
+  private int haltedToken = -1;
+  // Number of times the core was let run. RAM contents loaded by the debugger, such as a flash
+  // algorithm, are only known to be intact while this doesn't change. A reset that stops on the
+  // reset vector doesn't count, as the core halts before running anything.
+  private int resumeCount = 0;
+
+  // Core registers read or written while the core is known to be halted, indexed by DCRSR
+  // register number. The cache is dropped once runToken moves on. Dirty registers are written
+  // to the core right before it runs again.
+  private static final int REG_CACHE_SIZE = 0x60;
+  private final long[] regCache = new long[REG_CACHE_SIZE];
+  private final boolean[] regCached = new boolean[REG_CACHE_SIZE];
+  private final boolean[] regDirty = new boolean[REG_CACHE_SIZE];
+  private int regCacheToken = 0;
 
   public DebugPort dp;
   public AccessPort ap;
@@ -363,6 +381,13 @@ public class CortexM extends Target {
       transferSize = 32;
     }
 
+    // Writing DHCSR without C_HALT lets the core run: write the dirty registers first.
+    if (address == CortexM.DHCSR && (value & CortexM.C_HALT) == 0) {
+      this.writeBackRegisters();
+      this.runToken++;
+      this.resumeCount++;
+    }
+
     this.ap.writeMemory(address, value, transferSize);
   }
 
@@ -384,28 +409,29 @@ public class CortexM extends Target {
    * Read a memory location. By default, a word will be read.
    */
   @Override
-  public ArrayList<Object> readMemoryLater(long address, Integer transferSize)
+  public PendingRead readMemoryLater(final long address, Integer transferSize)
       throws TimeoutException, Error {
     // Load default value if null.
     if (transferSize == null) {
       transferSize = 32;
     }
 
-    return this.ap.readMemoryLater(address, transferSize);
+    final int size = transferSize;
+    return this.ap.readMemoryLater(address, transferSize).map(new PendingRead.Function() {
+      @Override
+      public long apply(long value) {
+        return bpManager.filterMemory(address, size, value);
+      }
+    });
   }
 
   /*
-   * Read a memory location. By default, a word will be read.
+   * Read a word until (word & mask) == expected, with the probe repeating the read.
    */
   @Override
-  public long readMemoryAsync(Transfer transfer, int numDp, long addr, Integer transferSize,
-      int num) throws TimeoutException, Error {
-    // Load default value if null.
-    if (transferSize == null) {
-      transferSize = 32;
-    }
-
-    return this.ap.readMemoryAsync(transfer, numDp, addr, transferSize, num);
+  public boolean readMemoryMatch(long address, long expected, long mask)
+      throws TimeoutException, Error {
+    return this.ap.readMemoryMatch(address, expected, mask);
   }
 
   /*
@@ -417,6 +443,16 @@ public class CortexM extends Target {
     return this.bpManager.filterMemoryUnaligned8(address, size, data);
   }
 
+  /*
+   * Read size bytes into dst, starting at offset.
+   */
+  @Override
+  public void readBlockMemoryUnaligned8(long address, byte[] dst, int offset, int size)
+      throws TimeoutException, Error {
+    this.ap.readBlockMemoryUnaligned8(address, dst, offset, size);
+    this.bpManager.filterMemoryUnaligned8(address, dst, offset, size);
+  }
+
   /*
    * Read a block of aligned words in memory. Returns an array of word values.
    */
@@ -434,6 +470,15 @@ public class CortexM extends Target {
     this.ap.writeBlockMemoryUnaligned8(address, data);
   }
 
+  /*
+   * Write size bytes from data, starting at offset.
+   */
+  @Override
+  public void writeBlockMemoryUnaligned8(long address, byte[] data, int offset, int size)
+      throws TimeoutException, Error {
+    this.ap.writeBlockMemoryUnaligned8(address, data, offset, size);
+  }
+
   /*
    * Write a block of aligned words in memory.
    */
@@ -442,6 +487,41 @@ public class CortexM extends Target {
     this.ap.writeBlockMemoryAligned32(address, words);
   }
 
+  /*
+   * Read a block of aligned words in memory into dst, starting at offset.
+   */
+  @Override
+  public void readBlockMemoryAligned32(long address, int[] dst, int offset, int length)
+      throws TimeoutException, Error {
+    this.ap.readBlockMemoryAligned32(address, dst, offset, length);
+    this.bpManager.filterMemoryAligned32(address, dst, offset, length);
+  }
+
+  /*
+   * Write a block of aligned words in memory from words, starting at offset.
+   */
+  @Override
+  public void writeBlockMemoryAligned32(long address, int[] words, int offset, int length)
+      throws TimeoutException, Error {
+    this.ap.writeBlockMemoryAligned32(address, words, offset, length);
+  }
+
+  /*
+   * Flush through the debug port, so its register shadow is dropped if the flush fails.
+   */
+  @Override
+  public void flush() throws TimeoutException, Error {
+    this.dp.flush();
+  }
+
+  /*
+   * Open a batch scope on the debug port of this core.
+   */
+  @Override
+  public Batch batch() {
+    return this.dp.batch();
+  }
+
   public void clearDebugCauseBits() throws TimeoutException, Error {
     this.writeMemory(CortexM.DFSR, CortexM.DFSR_DWTTRAP | CortexM.DFSR_BKPT | CortexM.DFSR_HALTED);
   }
@@ -458,6 +538,7 @@ public class CortexM extends Target {
     }
 
     this.runToken++;
+    this.resumeCount++;
 
     if (softwareReset) {
       // Perform the reset.
@@ -473,14 +554,13 @@ public class CortexM extends Target {
       this.dp.reset();
     }
 
-    // Now wait for the system to come out of reset. Keep reading the DHCSR until we get a good
-    // response with S_RESET_ST cleared, or we time out.
+    // Now wait for the system to come out of reset. Let the probe read the DHCSR until we get a
+    // good response with S_RESET_ST cleared, or we time out.
     long startTime = System.currentTimeMillis();
     long timeoutMs = 2000;
     while ((System.currentTimeMillis() - startTime) < timeoutMs) {
       try {
-        long dhcsr = read32(CortexM.DHCSR);
-        if ((dhcsr & CortexM.S_RESET_ST) == 0) {
+        if (this.readMemoryMatch(CortexM.DHCSR, 0, CortexM.S_RESET_ST)) {
           break;
         }
       } catch (Exception e) {
@@ -504,6 +584,7 @@ public class CortexM extends Target {
    * Perform a reset and stop the core on the reset handler.
    */
   @Override
+  @SuppressWarnings("try")
   public void resetStopOnReset(Boolean softwareReset)
       throws InterruptedException, TimeoutException, Error {
     if (softwareReset == null) {
@@ -513,27 +594,36 @@ public class CortexM extends Target {
 
     LOGGER.log(Level.FINE, "Reset stop on Reset.");
 
-    // Halt the target.
-    halt();
+    PendingRead demcr;
+    try (Batch batch = this.batch()) {
+      // Save CortexM.DEMCR. Queued so it is read together with the halt.
+      demcr = readMemoryLater(CortexM.DEMCR, null);
 
-    // Save CortexM.DEMCR.
-    long demcr = readMemoryNow(CortexM.DEMCR, null);
+      // Halt the target.
+      halt();
 
-    // Enable the vector catch.
-    writeMemory(CortexM.DEMCR, demcr | CortexM.DEMCR_VC_CORERESET, null);
+      // Enable the vector catch.
+      writeMemory(CortexM.DEMCR, demcr.get() | CortexM.DEMCR_VC_CORERESET, null);
+    }
+
+    // Out of the batch, so reset can flush the AIRCR write on its own.
+    int resumes = this.resumeCount;
     reset(softwareReset);
 
     // Wait until the unit resets.
-    while (this.isRunning()) {
+    while (!this.waitUntilStopped()) {
       try {
         Thread.sleep(1);
       } catch (InterruptedException e) {
         LOGGER.log(Level.SEVERE, e.toString());
       }
     }
+    // The core stopped before running anything.
+    this.resumeCount = resumes;
 
     // Restore vector catch setting.
-    writeMemory(CortexM.DEMCR, demcr, null);
+    writeMemory(CortexM.DEMCR, demcr.get(), null);
+    this.dp.flush();
   }
 
   @Override
@@ -563,6 +653,7 @@ public class CortexM extends Target {
     } else if ((dhcsr & CortexM.S_SLEEP) != 0) {
       return Target.State.TARGET_SLEEPING;
     } else if ((dhcsr & CortexM.S_HALT) != 0) {
+      this.haltedToken = this.runToken;
       return Target.State.TARGET_HALTED;
     } else {
       return Target.State.TARGET_RUNNING;
@@ -579,6 +670,27 @@ public class CortexM extends Target {
     return (getState() == Target.State.TARGET_HALTED);
   }
 
+  /*
+   * Return the number of times the core was let run, or reset without stopping on the reset
+   * vector.
+   */
+  public int getResumeCount() {
+    return this.resumeCount;
+  }
+
+  /*
+   * Let the probe poll DHCSR for S_HALT. If it is still not set, the core may be stopped in
+   * another way (sleep, lockup, reset), so the state is read once.
+   */
+  @Override
+  public boolean waitUntilStopped() throws TimeoutException, Error {
+    if (this.readMemoryMatch(CortexM.DHCSR, CortexM.S_HALT, CortexM.S_HALT)) {
+      this.haltedToken = this.runToken;
+      return true;
+    }
+    return !this.isRunning();
+  }
+
   private long mapToVectorCatchMask(long mask) {
     long result = 0;
 
@@ -657,16 +769,18 @@ public class CortexM extends Target {
    * Resume the execution.
    */
   @Override
+  @SuppressWarnings("try")
   public void resume() throws TimeoutException, Error {
     if (this.getState() != State.TARGET_HALTED) {
       LOGGER.log(Level.FINE, "Cannot resume: target not halted");
       return;
     }
 
-    this.runToken++;
-    this.clearDebugCauseBits();
-    this.writeMemory(CortexM.DHCSR, CortexM.DBGKEY | CortexM.C_DEBUGEN);
-    this.dp.flush();
+    // Dirty registers are written back in the same packet, see writeMemory.
+    try (Batch batch = this.batch()) {
+      this.clearDebugCauseBits();
+      this.writeMemory(CortexM.DHCSR, CortexM.DBGKEY | CortexM.C_DEBUGEN);
+    }
   }
 
   /*
@@ -711,58 +825,46 @@ public class CortexM extends Target {
       }
     }
 
-    // Each result will return a list of 3 objects.
-    // Then, we need a list to store each result: a list of lists.
-    List<List<Object>> dhcsrCbList = new ArrayList<List<Object>>();
-    List<List<Object>> regCbList = new ArrayList<List<Object>>();
+    // Registers are only cached while the core is known to be halted.
+    this.checkRegisterCache();
+    boolean halted = (this.haltedToken == this.runToken);
+
+    // Queue all reads of registers not in the cache, they will be sent together when the first
+    // result is needed.
+    PendingRead[] regCbList = new PendingRead[regList.size()];
 
     // Begin all reads and writes.
     for (int i = 0; i < regList.size(); i++) {
-      CoreRegister reg = regList.get(i);
-
-      // Special register.
-      if ((reg.getValue() < 0) && (reg.getValue() >= -4)) {
-        reg = CortexMRegister.CFBP;
+      int index = registerIndex(regList.get(i));
+      if (halted && this.regCached[index]) {
+        continue;
       }
 
       // Write id in DCRSR.
-      this.writeMemory(CortexM.DCRSR, reg.getValue());
+      this.writeMemory(CortexM.DCRSR, index);
 
-      // Technically, we need to poll S_REGRDY in DHCSR here before reading DCRDR. But we're running
-      // so slow compared to the target that it's not necessary.
-
-      // Read it and assert that S_REGRDY is set
-      dhcsrCbList.add(this.readMemoryLater(CortexM.DHCSR, null));
-      regCbList.add(this.readMemoryLater(CortexM.DCRDR, null));
+      // The probe polls S_REGRDY in DHCSR before DCRDR is read. If it never gets set, the
+      // flush throws a TransferMismatchError.
+      this.ap.readMemoryMatchLater(CortexM.DHCSR, CortexM.S_REGRDY, CortexM.S_REGRDY);
+      regCbList[i] = this.readMemoryLater(CortexM.DCRDR, null);
     }
 
     // Read all results.
     long[] regValues = new long[regList.size()];
     for (int i = 0; i < regList.size(); i++) {
       CoreRegister reg = regList.get(i);
-
-      List<Object> result;
-      Transfer transfer;
-      int numDp;
-      int num;
-
-      result = dhcsrCbList.get(i);
-      transfer = (Transfer) result.get(0);
-      numDp = (int) result.get(1);
-      num = (int) result.get(2);
-      long dhcsrVal = this.readMemoryAsync(transfer, numDp, CortexM.DHCSR, null, num);
-
-      // assert dhcsr_val & CortexM.S_REGRDY
-      if ((dhcsrVal & CortexM.S_REGRDY) == 0) {
-        throw new Error("readCoreRegisterRaw: Unexpected value of dhcsrVal = " + dhcsrVal);
+      int index = registerIndex(reg);
+      long value;
+      if (regCbList[i] == null) {
+        value = this.regCache[index];
+      } else {
+        value = regCbList[i].get();
+        if (halted) {
+          this.regCache[index] = value;
+          this.regCached[index] = true;
+        }
       }
 
-      result = regCbList.get(i);
-      transfer = (Transfer) result.get(0);
-      numDp = (int) result.get(1);
-      num = (int) result.get(2);
-      long value = this.readMemoryAsync(transfer, numDp, CortexM.DCRDR, null, num);
-
       // Special handling for registers that are combined into a single DCRSR number.
       if ((reg.getValue() < 0) && (reg.getValue() >= -4)) {
         value = (value >> ((-reg.getValue() - 1) * 8)) & 0xFFL;
@@ -774,6 +876,95 @@ public class CortexM extends Target {
     return regValues;
   }
 
+  /*
+   * Read all the core registers at once. The core must be halted.
+   * DHCSR, DCRSR and DCRDR share a 16 byte block, so they are accessed through the banked data
+   * registers of the AP: each register only takes a DCRSR write and a DCRDR read, and they are
+   * all sent in as few packets as possible. A register transfer takes a few core cycles while
+   * an SWD transfer lasts dozens of clock cycles, so S_REGRDY is checked once at the end, and
+   * only polled for each register if that check fails.
+   */
+  public CoreSnapshot readCoreSnapshot() throws TimeoutException, Error {
+    CoreSnapshot snapshot = new CoreSnapshot(this.hasFpu);
+    int[] numbers = CoreSnapshot.getRegisterNumbers(this.hasFpu);
+
+    // Nothing to read if the cache has all the registers.
+    this.checkRegisterCache();
+    boolean cached = (this.haltedToken == this.runToken);
+    for (int i = 0; cached && i < numbers.length; i++) {
+      cached = this.regCached[numbers[i]];
+    }
+
+    if (!cached) {
+      if (!this.readCoreSnapshot(snapshot, numbers, false)) {
+        LOGGER.log(Level.FINE, "readCoreSnapshot: S_REGRDY not set, polling it");
+        if (!this.readCoreSnapshot(snapshot, numbers, true)) {
+          throw new Error("readCoreSnapshot: S_REGRDY not set");
+        }
+      }
+
+      // The core is halted, so the registers can be cached. Dirty ones keep their new value.
+      this.haltedToken = this.runToken;
+      for (int number : numbers) {
+        if (!this.regDirty[number]) {
+          this.regCache[number] = snapshot.getByNumber(number);
+          this.regCached[number] = true;
+        }
+      }
+    }
+
+    for (int number : numbers) {
+      snapshot.set(number, this.regCache[number]);
+    }
+    return snapshot;
+  }
+
+  /*
+   * Read the registers in numbers into snapshot.
+   * DCRDR is only valid once DHCSR shows S_REGRDY. With pollReady, the probe polls DHCSR before
+   * each DCRDR read. Otherwise DHCSR is read before each DCRDR read, all in the same round trip,
+   * and false is returned if any of these reads didn't have S_REGRDY set.
+   */
+  @SuppressWarnings("try")
+  private boolean readCoreSnapshot(CoreSnapshot snapshot, int[] numbers, boolean pollReady)
+      throws TimeoutException, Error {
+    PendingRead[] reads = new PendingRead[numbers.length];
+    PendingRead[] states = new PendingRead[numbers.length];
+    PendingRead dhcsr = null;
+    try (Batch batch = this.batch()) {
+      this.ap.writeReg(AP_REG.CSW.getValue(), AccessPort.CSW_VALUE | AccessPort.CSW_SIZE32);
+      this.ap.writeReg(AP_REG.TAR.getValue(), CortexM.DHCSR);
+      for (int i = 0; i < numbers.length; i++) {
+        // BD1 is DCRSR, BD0 is DHCSR and BD2 is DCRDR.
+        this.ap.writeReg(AP_REG.BD1.getValue(), numbers[i]);
+        if (pollReady) {
+          this.ap.readRegMatch(AP_REG.BD0.getValue(), CortexM.S_REGRDY, CortexM.S_REGRDY);
+        } else {
+          states[i] = this.ap.readRegLater(AP_REG.BD0.getValue());
+        }
+        reads[i] = this.ap.readRegLater(AP_REG.BD2.getValue());
+      }
+      if (pollReady) {
+        dhcsr = this.ap.readRegLater(AP_REG.BD0.getValue());
+      }
+    }
+
+    for (int i = 0; i < numbers.length; i++) {
+      long dhcsrVal = pollReady ? dhcsr.get() : states[i].get();
+      if ((dhcsrVal & CortexM.S_HALT) == 0) {
+        throw new Error("readCoreSnapshot: core not halted, dhcsrVal = " + dhcsrVal);
+      }
+      if ((dhcsrVal & CortexM.S_REGRDY) == 0) {
+        return false;
+      }
+    }
+
+    for (int i = 0; i < numbers.length; i++) {
+      snapshot.set(numbers[i], reads[i].get());
+    }
+    return true;
+  }
+
   /*
    * write a CPU register.
    * Will need to pack floating point register values before writing.
@@ -821,51 +1012,134 @@ public class CortexM extends Target {
       }
     }
 
-    // Each result will return a list of 3 objects.
-    // Then, we need a list to store each result: a list of lists.
-    List<List<Object>> results = new ArrayList<List<Object>>();
+    // While the core is known to be halted, writes only go to the cache.
+    this.checkRegisterCache();
+    boolean halted = (this.haltedToken == this.runToken);
+
     for (int i = 0; i < regList.size(); i++) {
       CoreRegister reg = regList.get(i);
-      long word = words[i];
+      long word = this.getRegisterWord(reg, words[i]);
+      int index = registerIndex(reg);
+      if (halted) {
+        this.regCache[index] = word;
+        this.regCached[index] = true;
+        this.regDirty[index] = true;
+      } else {
+        this.regCached[index] = false;
+        this.regDirty[index] = false;
+        this.queueRegisterWrite(index, word);
+      }
+    }
 
-      // Read special register if it is present in the list.
-      if ((reg.getValue() < 0) && (reg.getValue() >= -4)) {
-        long specialRegValue = this.readCoreRegister(CortexMRegister.CFBP);
-
-        // Mask in the new special register value so we don't modify the other register values that
-        // share the same DCRSR number.
-        long shift = (-(reg.getValue()) - 1) * 8;
-        long mask = 0xFFFFFFFFL ^ (0xFFL << shift);
-        word = (specialRegValue & mask) | ((word & 0xFFL) << shift);
-        // Update special register for other writes that might be in the list.
-        specialRegValue = word;
-        reg = CortexMRegister.CFBP;
+    // Inside a batch this is checked when the batch is flushed.
+    if (!halted) {
+      this.flush();
+    }
+  }
+
+  /*
+   * Queue the writes of all the dirty registers. They are sent with whatever follows.
+   */
+  public void writeBackRegisters() throws TimeoutException, Error {
+    this.checkRegisterCache();
+    for (int index = 0; index < REG_CACHE_SIZE; index++) {
+      if (this.regDirty[index]) {
+        this.regDirty[index] = false;
+        this.queueRegisterWrite(index, this.regCache[index]);
       }
+    }
+  }
 
-      // Write DCRDR.
-      this.writeMemory(CortexM.DCRDR, word);
+  /*
+   * Write core registers and let the core run, as one batch: the register writes, clearing
+   * the debug cause bits and the DHCSR write are sent together. The state is not read first,
+   * the S_REGRDY checks of the register writes fail if the core is not halted.
+   * Only the first count registers of regs are written.
+   */
+  @SuppressWarnings("try")
+  public void writeCoreRegistersAndRun(CoreRegister[] regs, long[] words, int count)
+      throws TimeoutException, Error {
+    // Assert count <= regs.length && count <= words.length.
+    if (count > regs.length || count > words.length) {
+      throw new Error("writeCoreRegistersAndRun: count > regs.length or words.length");
+    }
 
-      // Write id in DCRSR and flag to start write transfer.
-      this.writeMemory(CortexM.DCRSR, reg.getValue() | CortexM.DCRSR_REGWnR);
+    try (Batch batch = this.batch()) {
+      this.checkRegisterCache();
+      for (int i = 0; i < count; i++) {
+        CoreRegister reg = regs[i];
+        if ((reg.getValue() >= 0x40 || reg.getValue() == 33) && (this.hasFpu == false)) {
+          throw new InternalError("attempt to write FPU register without FPU");
+        }
 
-      // Technically, we need to poll S_REGRDY in DHCSR here to ensure the register write has
-      // completed.
+        // Written back with the other dirty registers right before DHCSR, see writeMemory.
+        int index = registerIndex(reg);
+        this.regCache[index] = this.getRegisterWord(reg, words[i]);
+        this.regCached[index] = true;
+        this.regDirty[index] = true;
+      }
 
-      // Read it and assert that S_REGRDY is set.
-      results.add(this.readMemoryLater(CortexM.DHCSR, null));
+      this.clearDebugCauseBits();
+      this.writeMemory(CortexM.DHCSR, CortexM.DBGKEY | CortexM.C_DEBUGEN);
     }
+  }
 
-    // Make sure S_REGRDY was set for all register writes.
-    for (List<Object> result : results) {
-      Transfer transfer = (Transfer) result.get(0);
-      int numDp = (int) result.get(1);
-      int num = (int) result.get(2);
-      long dhcsrVal = this.readMemoryAsync(transfer, numDp, CortexM.DHCSR, null, num);
+  /*
+   * Return the word to write in the DCRSR register of reg. The special registers share CFBP,
+   * so the other special registers are read and kept.
+   */
+  private long getRegisterWord(CoreRegister reg, long word) throws TimeoutException, Error {
+    if ((reg.getValue() >= 0) || (reg.getValue() < -4)) {
+      return word;
+    }
 
-      // assert dhcsr_val & CortexM.S_REGRDY
-      if ((dhcsrVal & CortexM.S_REGRDY) == 0) {
-        throw new Error("writeCoreRegisterRaw: Unexpected value of dhcsrVal = " + dhcsrVal);
-      }
+    long specialRegValue = this.readCoreRegisterRaw(CortexMRegister.CFBP);
+
+    // Mask in the new special register value so we don't modify the other register values that
+    // share the same DCRSR number.
+    long shift = (-(reg.getValue()) - 1) * 8;
+    long mask = 0xFFFFFFFFL ^ (0xFFL << shift);
+    return (specialRegValue & mask) | ((word & 0xFFL) << shift);
+  }
+
+  /*
+   * Queue the write of a register, by DCRSR register number.
+   * DHCSR, DCRSR and DCRDR are accessed through the banked data registers, see
+   * readCoreSnapshot, so CSW and TAR are only written for the first register.
+   */
+  private void queueRegisterWrite(int index, long word) throws TimeoutException, Error {
+    this.ap.writeReg(AP_REG.CSW.getValue(), AccessPort.CSW_VALUE | AccessPort.CSW_SIZE32);
+    this.ap.writeReg(AP_REG.TAR.getValue(), CortexM.DHCSR);
+
+    // Write DCRDR.
+    this.ap.writeReg(AP_REG.BD2.getValue(), word);
+
+    // Write id in DCRSR and flag to start write transfer.
+    this.ap.writeReg(AP_REG.BD1.getValue(), index | CortexM.DCRSR_REGWnR);
+
+    // The probe polls S_REGRDY in DHCSR to ensure the register write has completed.
+    // If it never gets set, the flush throws a TransferMismatchError.
+    this.ap.readRegMatch(AP_REG.BD0.getValue(), CortexM.S_REGRDY, CortexM.S_REGRDY);
+  }
+
+  /*
+   * Drop the register cache if the core may have run since it was filled.
+   */
+  private void checkRegisterCache() {
+    if (this.regCacheToken != this.runToken) {
+      Arrays.fill(this.regCached, false);
+      Arrays.fill(this.regDirty, false);
+      this.regCacheToken = this.runToken;
+    }
+  }
+
+  /*
+   * Return the DCRSR register number of a register. The special registers share one.
+   */
+  private static int registerIndex(CoreRegister reg) {
+    if ((reg.getValue() < 0) && (reg.getValue() >= -4)) {
+      return (int) CortexMRegister.CFBP.getValue();
     }
+    return (int) reg.getValue();
   }
 }
@@ -15,6 +15,8 @@
  */
 package br.org.certi.jocd.coresight;
 
+import br.org.certi.jocd.core.PendingRead;
+import br.org.certi.jocd.dapaccess.Batch;
 import br.org.certi.jocd.dapaccess.CmsisDapProtocol;
 import br.org.certi.jocd.dapaccess.CmsisDapProtocol.Port;
 import br.org.certi.jocd.dapaccess.CmsisDapProtocol.Reg;
@@ -22,9 +24,8 @@ import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
 import br.org.certi.jocd.dapaccess.Transfer;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.dapaccess.dapexceptions.TransferFaultError;
-import java.util.ArrayList;
+import br.org.certi.jocd.dapaccess.dapexceptions.TransferMismatchError;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -56,6 +57,11 @@ public class DebugPort {
     CSW(0x00L),
     TAR(0x04L),
     DRW(0x0CL),
+    // Banked data registers: the word at (TAR & ~0xF) + 4 * n, without changing TAR.
+    BD0(0x10L),
+    BD1(0x14L),
+    BD2(0x18L),
+    BD3(0x1CL),
     IDR(0xFCL);
 
     public final long value;
@@ -101,7 +107,12 @@ public class DebugPort {
   private static final long MASKLANE = 0x00000F00L;
 
   private DapAccessCmsisDap link;
-  private HashMap<Long, Long> csw = new HashMap<>();
+  // Shadow of the CSW and TAR of each AP, indexed by APSEL. -1 means unknown.
+  // They are kept across flushes and only dropped on errors or reset.
+  private final long[] csw = new long[256];
+  private final long[] tar = new long[256];
+  // Auto increment page size of each AP. 0 means TAR is not tracked through DRW accesses.
+  private final long[] autoIncrementPageSize = new long[256];
   private long dpSelect = -1;
   private int accessNumber = 0;
   private long dpidr;
@@ -110,6 +121,58 @@ public class DebugPort {
 
   public DebugPort(DapAccessCmsisDap link) {
     this.link = link;
+    this.invalidateCache();
+  }
+
+  /*
+   * Forget the cached CSW, TAR and SELECT values.
+   */
+  void invalidateCache() {
+    Arrays.fill(this.csw, -1);
+    Arrays.fill(this.tar, -1);
+    this.dpSelect = -1;
+  }
+
+  /*
+   * Enable tracking of TAR through DRW accesses for an AP.
+   * Within a page of this size, TAR is incremented by the transfer size after each DRW access.
+   */
+  public void setAutoIncrementPageSize(int apIndex, long pageSize) {
+    this.autoIncrementPageSize[apIndex] = pageSize;
+  }
+
+  /*
+   * Update the TAR shadow of an AP after count DRW accesses.
+   * Once the address leaves the auto increment page the next value of TAR is implementation
+   * defined, so it becomes unknown.
+   */
+  public void advanceTar(int apIndex, int count) {
+    long address = this.tar[apIndex];
+    long cswValue = this.csw[apIndex];
+    long pageSize = this.autoIncrementPageSize[apIndex];
+    if (address == -1) {
+      return;
+    }
+    if (cswValue == -1 || pageSize == 0) {
+      this.tar[apIndex] = -1;
+      return;
+    }
+
+    long mode = cswValue & AccessPort.CSW_ADDRINC;
+    if (mode == AccessPort.CSW_NADDRINC) {
+      return;
+    }
+    if (mode != AccessPort.CSW_SADDRINC) {
+      this.tar[apIndex] = -1;
+      return;
+    }
+
+    long next = address + ((long) count << (cswValue & AccessPort.CSW_SIZE));
+    if ((next & ~(pageSize - 1)) != (address & ~(pageSize - 1))) {
+      this.tar[apIndex] = -1;
+    } else {
+      this.tar[apIndex] = next;
+    }
   }
 
   public static long apAddrToReg(long addr) {
@@ -150,24 +213,50 @@ public class DebugPort {
     return this.dpidr;
   }
 
+  /*
+   * Return the DP ID register, as read when connecting.
+   */
+  public long getDpidr() {
+    return this.dpidr;
+  }
+
+  /*
+   * Send all pending transfers. Inside a batch, this is postponed until the batch ends.
+   */
   public void flush() throws TimeoutException, Error {
+    if (this.link.inBatch()) {
+      return;
+    }
     try {
       this.link.flush();
     } catch (Error error) {
       this.handleError(error, this.nextAccessNumber());
       throw error;
-    } finally {
-      this.csw = new HashMap<>();
-      this.dpSelect = -1;
+    } catch (TimeoutException exception) {
+      this.invalidateCache();
+      throw exception;
     }
   }
 
+  /*
+   * Open a batch scope on this link. Errors raised by the final flush are handled
+   * the same way as in flush().
+   */
+  public Batch batch() {
+    return new Batch(this.link) {
+      @Override
+      protected void flush() throws TimeoutException, Error {
+        DebugPort.this.flush();
+      }
+    };
+  }
+
   public long readRegNow(long addr) throws TimeoutException, Error {
     return this.readDPNow(addr);
   }
 
-  public void readRegLater(long addr) throws TimeoutException, Error {
-    this.readDPLater(addr);
+  public PendingRead readRegLater(long addr) throws TimeoutException, Error {
+    return this.readDPLater(addr);
   }
 
   public void writeReg(long addr, long word) throws TimeoutException, Error {
@@ -201,15 +290,13 @@ public class DebugPort {
     try {
       this.link.reset();
     } finally {
-      this.csw = new HashMap<>();
-      this.dpSelect = -1;
+      this.invalidateCache();
     }
   }
 
   public void assertReset(boolean asserted) throws TimeoutException, Error {
     this.link.assertReset(asserted);
-    this.csw = new HashMap<>();
-    this.dpSelect = -1;
+    this.invalidateCache();
   }
 
   public void setClock(int frequency) throws TimeoutException, Error {
@@ -235,24 +322,25 @@ public class DebugPort {
   }
 
   public long readDPNow(long addr) throws TimeoutException, Error {
-    ArrayList<Object> result = readDPLater(addr);
-    Transfer transfer = (Transfer) result.get(0);
-    int num = (int) result.get(1);
-    return readDPAsync(transfer, num);
+    return readDPLater(addr).get();
   }
 
-  public ArrayList<Object> readDPLater(long addr) throws TimeoutException, Error {
+  public PendingRead readDPLater(long addr) throws TimeoutException, Error {
     // Assert Reg.containsReg(addr).
     if (!Reg.containsReg(addr)) {
       throw new Error("readDPLater: Reg.containsReg(addr)");
     }
 
-    int num = this.nextAccessNumber();
+    final int num = this.nextAccessNumber();
 
-    Transfer transfer;
     try {
-      transfer = this.link.readReg(addr);
-      return new ArrayList<>(Arrays.asList(transfer, num));
+      final Transfer transfer = this.link.readReg(addr);
+      return new PendingRead() {
+        @Override
+        protected long resolve() throws TimeoutException, Error {
+          return readDPAsync(transfer, num);
+        }
+      };
     } catch (Error error) {
       this.handleError(error, num);
       throw error;
@@ -267,6 +355,9 @@ public class DebugPort {
     } catch (Error error) {
       this.handleError(error, num);
       throw error;
+    } catch (TimeoutException exception) {
+      this.invalidateCache();
+      throw exception;
     }
   }
 
@@ -301,19 +392,31 @@ public class DebugPort {
   }
 
   public boolean writeAP(long addr, Long word) throws TimeoutException, Error {
+    return this.writeAP(addr, word.longValue());
+  }
+
+  public boolean writeAP(long addr, long word) throws TimeoutException, Error {
     int num = this.nextAccessNumber();
     long apSel = (addr & APSEL);
     long bankSel = (addr & APBANKSEL);
     long apRegaddr = (addr & APREG_MASK);
 
-    // Don't need to write CSW if it's not changing value
+    // Don't need to write CSW or TAR if they are not changing value
+    int apIndex = (int) (apSel >>> APSEL_SHIFT);
     if (apRegaddr == AP_REG.CSW.getValue()) {
-      if (this.csw.containsKey(apSel) && word.equals(this.csw.get(apSel))) {
+      if (this.csw[apIndex] == word) {
         LOGGER.log(Level.INFO,
             String.format("writeAP:%06d cached (addr=0x%08x) = 0x%08x", num, addr, word));
         return false;
       }
-      this.csw.put(apSel, word);
+      this.csw[apIndex] = word;
+    } else if (apRegaddr == AP_REG.TAR.getValue()) {
+      if (this.tar[apIndex] == word) {
+        LOGGER.log(Level.INFO,
+            String.format("writeAP:%06d cached (addr=0x%08x) = 0x%08x", num, addr, word));
+        return false;
+      }
+      this.tar[apIndex] = word;
     }
 
     // Select the AP and bank.
@@ -324,6 +427,9 @@ public class DebugPort {
     try {
       LOGGER.log(Level.INFO, String.format("writeAP:%06d (addr=0x%08x) = 0x%08x", num, addr, word));
       this.link.writeReg(apReg, word);
+      if (apRegaddr == AP_REG.DRW.getValue()) {
+        this.advanceTar(apIndex, 1);
+      }
     } catch (Error error) {
       this.handleError(error, num);
       throw error;
@@ -333,23 +439,59 @@ public class DebugPort {
   }
 
   public long readAPNow(long addr) throws TimeoutException, Error {
-    ArrayList<Object> result = this.readAP(addr);
-    Transfer transfer = (Transfer) result.get(0);
-    int num = (int) result.get(1);
-    return readAPAsync(transfer, num);
+    return this.readAP(addr).get();
+  }
+
+  public PendingRead readAP(long addr) throws TimeoutException, Error {
+    final int num = this.nextAccessNumber();
+    long apReg = apAddrToReg((READ | AP_ACC | (addr & A32)));
+
+    try {
+      long apSel = (addr & APSEL);
+      long bankSel = (addr & APBANKSEL);
+      this.writeDP(DP_REG.SELECT.getValue(), (apSel | bankSel));
+      final Transfer transfer = this.link.readReg(apReg);
+      if ((addr & APREG_MASK) == AP_REG.DRW.getValue()) {
+        this.advanceTar((int) (apSel >>> APSEL_SHIFT), 1);
+      }
+      return new PendingRead() {
+        @Override
+        protected long resolve() throws TimeoutException, Error {
+          return readAPAsync(transfer, num);
+        }
+      };
+    } catch (Error error) {
+      this.handleError(error, num);
+      throw error;
+    }
   }
 
-  public ArrayList<Object> readAP(long addr) throws TimeoutException, Error {
+  /*
+   * Queue an AP register read that the probe repeats until (value & mask) == expected.
+   * See DapAccessCmsisDap.regReadMatch.
+   */
+  public void readAPMatch(long addr, long expected, long mask) throws TimeoutException, Error {
     int num = this.nextAccessNumber();
     long apReg = apAddrToReg((READ | AP_ACC | (addr & A32)));
 
-    Transfer transfer;
     try {
       long apSel = (addr & APSEL);
       long bankSel = (addr & APBANKSEL);
       this.writeDP(DP_REG.SELECT.getValue(), (apSel | bankSel));
-      transfer = this.link.readReg(apReg);
-      return new ArrayList<>(Arrays.asList(transfer, num));
+      LOGGER.log(Level.INFO, String.format(
+          "readAPMatch:%06d (addr=0x%08x, expected=0x%08x, mask=0x%08x)", num, addr, expected,
+          mask));
+      this.link.regReadMatch(apReg, expected, mask, (byte) 0);
+
+      // The number of reads is unknown, so TAR is only known if it doesn't increment.
+      int apIndex = (int) (apSel >>> APSEL_SHIFT);
+      if ((addr & APREG_MASK) == AP_REG.DRW.getValue() && (this.csw[apIndex] == -1
+          || (this.csw[apIndex] & AccessPort.CSW_ADDRINC) != AccessPort.CSW_NADDRINC)) {
+        this.tar[apIndex] = -1;
+      }
+    } catch (TransferMismatchError error) {
+      // Sent right away: nothing was queued after the read, so the caches are still valid.
+      throw error;
     } catch (Error error) {
       this.handleError(error, num);
       throw error;
@@ -363,14 +505,16 @@ public class DebugPort {
     } catch (Error error) {
       this.handleError(error, num);
       throw error;
+    } catch (TimeoutException exception) {
+      this.invalidateCache();
+      throw exception;
     }
   }
 
   public void handleError(Error error, int num) throws TimeoutException, Error {
     LOGGER.log(Level.INFO, String.format("error:%06d %s", num, error));
     // Invalidate cached registers
-    this.csw = new HashMap<>();
-    this.dpSelect = -1;
+    this.invalidateCache();
     // Clear sticky error for Fault errors only
     if (error instanceof TransferFaultError) {
       this.clearStickyErr();
@@ -15,6 +15,8 @@
  */
 package br.org.certi.jocd.coresight;
 
+import br.org.certi.jocd.core.PendingRead;
+import br.org.certi.jocd.dapaccess.Batch;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.debug.breakpoints.BreakpointProvider;
 import java.util.ArrayList;
@@ -62,19 +64,24 @@ public class Dwt extends BreakpointProvider {
    * are all disabled and ready for future use.
    */
   @Override
+  @SuppressWarnings("try")
   public void init() throws TimeoutException, Error {
-    long demcr = this.ap.readMemory(DEMCR, null);
-    demcr = demcr | DEMCR_TRCENA;
-    this.ap.writeMemory(DEMCR, demcr, null);
-    long dwtCtrl = this.ap.readMemory(Dwt.DWT_CTRL, null);
-    long watchpointCount = ((dwtCtrl >> 28) & 0x0FL);
-    LOGGER.log(Level.FINE, watchpointCount + "hardware watchpoints.");
+    // Both registers are read in a single round trip, and the writes are sent with the final
+    // flush.
+    try (Batch batch = this.ap.dp.batch()) {
+      PendingRead demcr = this.ap.readMemoryLater(DEMCR, null);
+      PendingRead dwtCtrl = this.ap.readMemoryLater(Dwt.DWT_CTRL, null);
 
-    for (int i = 0; i < watchpointCount; i++) {
-      this.watchpoints.add(new Watchpoint(Dwt.DWT_COMP_BASE + Dwt.DWT_COMP_BLOCK_SIZE * i, this));
-      this.ap
-          .writeMemory(Dwt.DWT_COMP_BASE + Dwt.DWT_COMP_BLOCK_SIZE * i + Dwt.DWT_FUNCTION_OFFSET, 0,
-              null);
+      this.ap.writeMemory(DEMCR, demcr.get() | DEMCR_TRCENA, null);
+      long watchpointCount = ((dwtCtrl.get() >> 28) & 0x0FL);
+      LOGGER.log(Level.FINE, watchpointCount + "hardware watchpoints.");
+
+      for (int i = 0; i < watchpointCount; i++) {
+        this.watchpoints
+            .add(new Watchpoint(Dwt.DWT_COMP_BASE + Dwt.DWT_COMP_BLOCK_SIZE * i, this));
+        this.ap.writeMemory(
+            Dwt.DWT_COMP_BASE + Dwt.DWT_COMP_BLOCK_SIZE * i + Dwt.DWT_FUNCTION_OFFSET, 0, null);
+      }
     }
     this.dwtConfigured = true;
   }
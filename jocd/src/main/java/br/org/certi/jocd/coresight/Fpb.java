@@ -15,6 +15,7 @@
  */
 package br.org.certi.jocd.coresight;
 
+import br.org.certi.jocd.dapaccess.Batch;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.debug.breakpoints.BreakpointProvider;
 import java.util.ArrayList;
@@ -51,21 +52,25 @@ public class Fpb extends BreakpointProvider {
    * (Flash Patch and Breakpoint Unit), which will be enabled when the first breakpoint is set.
    */
   @Override
+  @SuppressWarnings("try")
   public void init() throws TimeoutException, Error {
-    long fpcr = this.ap.readMemory(Fpb.FP_CTRL, null);
-    this.nbCode = ((fpcr >> 8) & 0x70L) | ((fpcr >> 4) & 0x0FL);
-    this.nbLit = (fpcr >> 7) & 0x0FL;
-    LOGGER.log(Level.FINE,
-        this.nbCode + "hardware breakpoints, " + this.nbLit + " literal comparators");
+    // All the comparator writes are sent together with the final flush.
+    try (Batch batch = this.ap.dp.batch()) {
+      long fpcr = this.ap.readMemory(Fpb.FP_CTRL, null);
+      this.nbCode = ((fpcr >> 8) & 0x70L) | ((fpcr >> 4) & 0x0FL);
+      this.nbLit = (fpcr >> 7) & 0x0FL;
+      LOGGER.log(Level.FINE,
+          this.nbCode + "hardware breakpoints, " + this.nbLit + " literal comparators");
 
-    for (int i = 0; i < this.nbCode; i++) {
-      this.hwBreakpoints.add(new HardwareBreakpoint(Fpb.FP_COMP0 + 4 * i, this));
-    }
-    // Disable FPB (will be enabled on first bp set).
-    this.disable();
+      for (int i = 0; i < this.nbCode; i++) {
+        this.hwBreakpoints.add(new HardwareBreakpoint(Fpb.FP_COMP0 + 4 * i, this));
+      }
+      // Disable FPB (will be enabled on first bp set).
+      this.disable();
 
-    for (HardwareBreakpoint bp : hwBreakpoints) {
-      this.ap.writeMemory(bp.compRegisterAddress, 0, null);
+      for (HardwareBreakpoint bp : hwBreakpoints) {
+        this.ap.writeMemory(bp.compRegisterAddress, 0, null);
+      }
     }
   }
 
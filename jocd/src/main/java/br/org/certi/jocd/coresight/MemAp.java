@@ -15,14 +15,18 @@
  */
 package br.org.certi.jocd.coresight;
 
+import br.org.certi.jocd.core.PendingRead;
 import br.org.certi.jocd.coresight.DebugPort.AP_REG;
+import br.org.certi.jocd.dapaccess.Batch;
+import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
 import br.org.certi.jocd.dapaccess.Transfer;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.dapaccess.dapexceptions.TransferFaultError;
+import br.org.certi.jocd.dapaccess.dapexceptions.TransferMismatchError;
 import br.org.certi.jocd.util.Conversion;
 import br.org.certi.jocd.util.Mask;
-import br.org.certi.jocd.util.Util;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,6 +54,9 @@ public class MemAp extends AccessPort {
     this.autoIncrementPageSize = MEM_AP_IDR_TO_WRAP_SIZE.get(this.idr);
     if (this.autoIncrementPageSize == null) {
       LOGGER.log(Level.WARNING, String.format("Unknown MEM-AP IDR: 0x%x", this.idr));
+    } else {
+      // Let the DP follow TAR through auto increments, so it's only written when needed.
+      this.dp.setAutoIncrementPageSize(this.apNum, this.autoIncrementPageSize);
     }
   }
 
@@ -108,33 +115,30 @@ public class MemAp extends AccessPort {
     if (transferSize == null) {
       transferSize = 32;
     }
-    ArrayList<Object> result = this.readMemoryLater(addr, transferSize);
-    Transfer transfer = (Transfer) result.get(0);
-    int numDp = (int) result.get(1);
-    int num = (int) result.get(2);
-    return readMemoryAsync(transfer, numDp, addr, transferSize, num);
+    return this.readMemoryLater(addr, transferSize).get();
   }
 
   /*
-   * Read a memory location.
+   * Queue a read of a memory location and return a handle to its value.
    * By default, a word will be read.
    */
   @Override
-  public ArrayList<Object> readMemoryLater(long addr, Integer transferSize)
+  public PendingRead readMemoryLater(final long addr, Integer transferSize)
       throws TimeoutException, Error {
     // Set default value if null.
     if (transferSize == null) {
       transferSize = 32;
     }
-    int num = this.dp.nextAccessNumber();
+    final int size = transferSize;
+    final int num = this.dp.nextAccessNumber();
     LOGGER.log(Level.INFO,
         String.format("readMem:%06d (addr=0x%08x, size=%d) {", num, addr, transferSize));
 
-    ArrayList<Object> result = new ArrayList<>();
+    final PendingRead read;
     try {
       this.writeReg(AP_REG.CSW.getValue(), CSW_VALUE | TRANSFER_SIZE.get(transferSize));
       this.writeReg(AP_REG.TAR.getValue(), addr);
-      result = this.readRegLater(AP_REG.DRW.getValue());
+      read = this.readRegLater(AP_REG.DRW.getValue());
 
     } catch (TransferFaultError error) {
       // Annotate error with target address.
@@ -145,16 +149,133 @@ public class MemAp extends AccessPort {
       this.handleError(error, num);
       throw error;
     }
-    result.add(num);
-    return result;
+
+    return new PendingRead() {
+      @Override
+      protected long resolve() throws TimeoutException, Error {
+        return readMemoryAsync(read, addr, size, num);
+      }
+    };
+  }
+
+  /*
+   * Read several memory locations, in order, with as few round trips as possible.
+   * All the CSW/TAR/DRW transfers are queued in one batch and packed into as many
+   * DAP_Transfer packets as needed. If transferSizes is null, words are read.
+   */
+  @Override
+  @SuppressWarnings("try")
+  public long[] readMemoryGather(long[] addresses, int[] transferSizes)
+      throws TimeoutException, Error {
+    // Assert transferSizes == null || transferSizes.length == addresses.length.
+    if (transferSizes != null && transferSizes.length != addresses.length) {
+      throw new Error("readMemoryGather: transferSizes.length != addresses.length");
+    }
+
+    PendingRead[] reads = new PendingRead[addresses.length];
+    try (Batch batch = this.dp.batch()) {
+      for (int i = 0; i < addresses.length; i++) {
+        reads[i] = this.readMemoryLater(addresses[i],
+            (transferSizes == null) ? 32 : transferSizes[i]);
+      }
+      return PendingRead.getAll(reads);
+    }
+  }
+
+  /*
+   * Read several blocks of aligned words with as few round trips as possible. Block i is read
+   * from addresses[i] and fills dst[i]. All the block reads are queued in one batch.
+   */
+  @Override
+  @SuppressWarnings("try")
+  public void readBlockMemoryGather(long[] addresses, int[][] dst)
+      throws TimeoutException, Error {
+    // Assert dst.length == addresses.length.
+    if (dst.length != addresses.length) {
+      throw new Error("readBlockMemoryGather: dst.length != addresses.length");
+    }
+
+    List<BlockRead> reads = new ArrayList<BlockRead>();
+    try (Batch batch = this.dp.batch()) {
+      for (int i = 0; i < addresses.length; i++) {
+        this.readBlockMemoryAligned32Later(addresses[i], dst[i], 0, dst[i].length, reads);
+      }
+      for (BlockRead read : reads) {
+        this.readBlock32Async(read);
+      }
+    }
   }
 
+  /*
+   * Read a word until (word & mask) == expected, with the probe repeating the read.
+   * Pending transfers are sent first, so a mismatch can't drop them.
+   * Return false if there was no match within the probe's match retries.
+   */
   @Override
-  public long readMemoryAsync(Transfer transfer, int numDp, long addr, Integer transferSize,
-      int num) throws TimeoutException, Error {
+  @SuppressWarnings("try")
+  public boolean readMemoryMatch(long addr, long expected, long mask)
+      throws TimeoutException, Error {
+    DapAccessCmsisDap link = this.dp.getLink();
+    try {
+      link.flush();
+    } catch (Error error) {
+      this.handleError(error, this.dp.nextAccessNumber());
+      throw error;
+    }
+
+    try {
+      // Send the CSW, TAR and match reads in one packet.
+      try (Batch batch = link.batch()) {
+        this.readMemoryMatchLater(addr, expected, mask);
+      }
+      link.flush();
+    } catch (TransferMismatchError error) {
+      // The read was the last transfer, the CSW and TAR shadows are still valid.
+      return false;
+    } catch (Error error) {
+      this.handleError(error, this.dp.nextAccessNumber());
+      throw error;
+    }
+    return true;
+  }
+
+  /*
+   * Queue a word read that the probe repeats until (word & mask) == expected.
+   * If there is no match, the flush that sends it throws a TransferMismatchError.
+   */
+  @Override
+  public void readMemoryMatchLater(long addr, long expected, long mask)
+      throws TimeoutException, Error {
+    int num = this.dp.nextAccessNumber();
+    LOGGER.log(Level.INFO, String.format(
+        "readMemMatch:%06d (addr=0x%08x, expected=0x%08x, mask=0x%08x)", num, addr, expected,
+        mask));
+
+    try {
+      // The address must not increment while the read is repeated.
+      this.writeReg(AP_REG.CSW.getValue(),
+          (CSW_VALUE & ~CSW_ADDRINC) | CSW_NADDRINC | CSW_SIZE32);
+      this.writeReg(AP_REG.TAR.getValue(), addr);
+      this.dp.readAPMatch((this.apNum << DebugPort.APSEL_SHIFT) | AP_REG.DRW.getValue(),
+          expected, mask);
+    } catch (TransferMismatchError error) {
+      throw error;
+    } catch (TransferFaultError error) {
+      // Annotate error with target address.
+      this.handleError(error, num);
+      error.setFaultAddress(addr);
+      throw error;
+    } catch (Error error) {
+      this.handleError(error, num);
+      throw error;
+    }
+  }
+
+  private long readMemoryAsync(PendingRead read, long addr, int transferSize, int num)
+      throws TimeoutException, Error {
     long res = 0;
     try {
-      res = this.dp.readAPAsync(transfer, numDp);
+      res = read.get();
       if (transferSize == 8) {
         res = (res >> ((addr & 0x03L) << 3) & 0xFFL);
       } else if (transferSize == 16) {
@@ -174,9 +295,18 @@ public class MemAp extends AccessPort {
 
   @Override
   public void writeBlock32(long addr, long[] word) throws TimeoutException, Error {
+    this.writeBlock32(addr, Conversion.toIntArray(word), 0, word.length);
+  }
+
+  /*
+   * Write length aligned words from words, starting at offset.
+   */
+  @Override
+  public void writeBlock32(long addr, int[] words, int offset, int length)
+      throws TimeoutException, Error {
     int num = this.dp.nextAccessNumber();
     LOGGER.log(Level.INFO,
-        String.format("writeBlock32:%06d (addr=0x%08x, size=%d) {", num, addr, word.length));
+        String.format("writeBlock32:%06d (addr=0x%08x, size=%d) {", num, addr, length));
 
     // Put address in TAR
     this.writeReg(AP_REG.CSW.getValue(), CSW_VALUE | CSW_SIZE32);
@@ -186,7 +316,8 @@ public class MemAp extends AccessPort {
       long reg = DebugPort.apAddrToReg(
           (this.apNum << DebugPort.APSEL_SHIFT) | DebugPort.WRITE | DebugPort.AP_ACC | AP_REG.DRW
               .getValue());
-      this.link.regWriteRepeat(word.length, reg, word, null);
+      this.link.regWriteRepeat(length, reg, words, offset, null);
+      this.dp.advanceTar(this.apNum, length);
     } catch (TransferFaultError error) {
       // Annotate error with target address.
       this.handleError(error, num);
@@ -204,10 +335,45 @@ public class MemAp extends AccessPort {
    */
   @Override
   public long[] readBlock32(long addr, int size) throws TimeoutException, Error {
+    int[] words = new int[size];
+    this.readBlock32(addr, words, 0, size);
+    return Conversion.toU32Array(words);
+  }
+
+  /*
+   * Read length aligned words into dst, starting at offset.
+   */
+  @Override
+  public void readBlock32(long addr, int[] dst, int offset, int length)
+      throws TimeoutException, Error {
+    this.readBlock32Async(this.readBlock32Later(addr, dst, offset, length));
+  }
+
+  /*
+   * Chunk of a block read that was queued but not completed yet.
+   */
+  private static class BlockRead {
+
+    final Transfer transfer;
+    final long addr;
+    final int num;
+
+    BlockRead(Transfer transfer, long addr, int num) {
+      this.transfer = transfer;
+      this.addr = addr;
+      this.num = num;
+    }
+  }
+
+  /*
+   * Queue a read of length aligned words. They are stored into dst, starting at offset,
+   * as the responses arrive.
+   */
+  private BlockRead readBlock32Later(long addr, int[] dst, int offset, int length)
+      throws TimeoutException, Error {
     int num = this.dp.nextAccessNumber();
     LOGGER.log(Level.INFO,
-        String.format("_readBlock32:%06d (addr=0x%08x, size=%d) {", num, addr, size));
-    long[] resp;
+        String.format("_readBlock32:%06d (addr=0x%08x, size=%d) {", num, addr, length));
 
     // Put address in TAR
     this.writeReg(AP_REG.CSW.getValue(), CSW_VALUE | CSW_SIZE32);
@@ -216,7 +382,9 @@ public class MemAp extends AccessPort {
       long reg = DebugPort.apAddrToReg(
           (this.apNum << DebugPort.APSEL_SHIFT) | DebugPort.READ | DebugPort.AP_ACC | AP_REG.DRW
               .getValue());
-      resp = this.link.regReadRepeat(size, reg, null);
+      Transfer transfer = this.link.regReadRepeatLater(length, reg, dst, offset, null);
+      this.dp.advanceTar(this.apNum, length);
+      return new BlockRead(transfer, addr, num);
     } catch (TransferFaultError error) {
       // Annotate error with target address.
       this.handleError(error, num);
@@ -226,9 +394,27 @@ public class MemAp extends AccessPort {
       this.handleError(error, num);
       throw error;
     }
-    LOGGER.log(Level.INFO, String.format("readBlock32:%06d }", num));
+  }
 
-    return resp;
+  /*
+   * Wait until a queued block read is completed.
+   */
+  private void readBlock32Async(BlockRead read) throws TimeoutException, Error {
+    try {
+      read.transfer.getResultWords();
+    } catch (TransferFaultError error) {
+      // Annotate error with target address.
+      this.handleError(error, read.num);
+      error.setFaultAddress(read.addr);
+      throw error;
+    } catch (Error error) {
+      this.handleError(error, read.num);
+      throw error;
+    } catch (TimeoutException exception) {
+      this.dp.invalidateCache();
+      throw exception;
+    }
+    LOGGER.log(Level.INFO, String.format("readBlock32:%06d }", read.num));
   }
 
   /*
@@ -285,97 +471,153 @@ public class MemAp extends AccessPort {
    */
   @Override
   public byte[] readBlockMemoryUnaligned8(long addr, int size) throws TimeoutException, Error {
-    byte[] res = new byte[0];
-
-    // Try to read 8bits data
-    if ((size > 0) && (addr & 0x01) != 0) {
-      byte mem = this.read8(addr);
-      res = Util.appendDataInArray(res, mem);
-      size -= 1;
-      addr += 1;
-    }
+    byte[] res = new byte[size];
+    this.readBlockMemoryUnaligned8(addr, res, 0, size);
+    return res;
+  }
 
-    // Try to read 16bits data
-    if ((size > 1) && (addr & 0x02) != 0) {
-      int mem = this.read16(addr);
-      res = Util.appendDataInArray(res, (byte) (mem & 0xFF));
-      res = Util.appendDataInArray(res, (byte) ((mem >> 8) & 0xFF));
-      size -= 2;
-      addr += 2;
+  /*
+   * Read size unaligned bytes into dst, starting at offset.
+   * The unaligned edges and all the aligned chunks are queued before waiting for any of them.
+   */
+  @Override
+  @SuppressWarnings("try")
+  public void readBlockMemoryUnaligned8(long addr, byte[] dst, int offset, int size)
+      throws TimeoutException, Error {
+    // Assert offset + size <= dst.length.
+    if (offset < 0 || offset + size > dst.length) {
+      throw new Error("readBlockMemoryUnaligned8: offset + size > dst.length");
     }
 
-    // Try to read aligned block of 32bits
-    if (size >= 4) {
-      long[] mem = this.readBlockMemoryAligned32(addr, size / 4);
-      res = Util.appendDataInArray(res, Conversion.u32leListToByteList(mem));
-      size -= 4 * mem.length;
-      addr += 4 * mem.length;
-    }
+    PendingRead head8 = null;
+    PendingRead head16 = null;
+    PendingRead tail16 = null;
+    PendingRead tail8 = null;
+    int[] data32 = null;
+    List<BlockRead> reads = new ArrayList<BlockRead>();
+
+    try (Batch batch = this.dp.batch()) {
+      // Try to read 8bits data
+      if ((size > 0) && (addr & 0x01) != 0) {
+        head8 = this.readMemoryLater(addr, 8);
+        size -= 1;
+        addr += 1;
+      }
 
-    if (size > 1) {
-      int mem = this.read16(addr);
-      res = Util.appendDataInArray(res, (byte) (mem & 0xFF));
-      res = Util.appendDataInArray(res, (byte) ((mem >> 8) & 0xFF));
-      size -= 2;
-      addr += 2;
-    }
+      // Try to read 16bits data
+      if ((size > 1) && (addr & 0x02) != 0) {
+        head16 = this.readMemoryLater(addr, 16);
+        size -= 2;
+        addr += 2;
+      }
 
-    if (size > 0) {
-      byte mem = this.read8(addr);
-      res = Util.appendDataInArray(res, mem);
-      size -= 1;
-      addr += 1;
-    }
+      // Try to read aligned block of 32bits
+      if (size >= 4) {
+        data32 = new int[size / 4];
+        this.readBlockMemoryAligned32Later(addr, data32, 0, data32.length, reads);
+        size -= 4 * data32.length;
+        addr += 4 * data32.length;
+      }
 
-    return res;
+      if (size > 1) {
+        tail16 = this.readMemoryLater(addr, 16);
+        size -= 2;
+        addr += 2;
+      }
+
+      if (size > 0) {
+        tail8 = this.readMemoryLater(addr, 8);
+      }
+
+      // Collect the results.
+      int idx = offset;
+      if (head8 != null) {
+        dst[idx++] = (byte) head8.get();
+      }
+      if (head16 != null) {
+        long mem = head16.get();
+        dst[idx++] = (byte) (mem & 0xFF);
+        dst[idx++] = (byte) ((mem >> 8) & 0xFF);
+      }
+      if (data32 != null) {
+        for (BlockRead read : reads) {
+          this.readBlock32Async(read);
+        }
+        Conversion.u32leListToByteList(data32, 0, dst, idx, data32.length);
+        idx += 4 * data32.length;
+      }
+      if (tail16 != null) {
+        long mem = tail16.get();
+        dst[idx++] = (byte) (mem & 0xFF);
+        dst[idx++] = (byte) ((mem >> 8) & 0xFF);
+      }
+      if (tail8 != null) {
+        dst[idx] = (byte) tail8.get();
+      }
+    }
   }
 
   @Override
   public void writeBlockMemoryUnaligned8(long addr, byte[] data) throws TimeoutException, Error {
-    int size = data.length;
-    int idx = 0;
-
-    // Try to write 8 bits data
-    if ((size > 0) && (addr & 0x01) != 0) {
-      this.writeMemory(addr, (data[idx] & 0xFF), 8);
-      size -= 1;
-      addr += 1;
-      idx += 1;
-    }
+    this.writeBlockMemoryUnaligned8(addr, data, 0, data.length);
+  }
 
-    // Try to write 16 bits data
-    if ((size > 1) && (addr & 0x02) != 0) {
-      this.writeMemory(addr, (data[idx] & 0xFF) | ((data[idx + 1] & 0xFF) << 8), 16);
-      size -= 2;
-      addr += 2;
-      idx += 2;
+  /*
+   * Write size bytes from data, starting at offset.
+   * Everything is queued and flushed once at the end.
+   */
+  @Override
+  @SuppressWarnings("try")
+  public void writeBlockMemoryUnaligned8(long addr, byte[] data, int offset, int size)
+      throws TimeoutException, Error {
+    // Assert offset + size <= data.length.
+    if (offset < 0 || offset + size > data.length) {
+      throw new Error("writeBlockMemoryUnaligned8: offset + size > data.length");
     }
 
-    // Write aligned block of 32 bits
-    if (size >= 4) {
-      long[] data32 = Conversion
-          .byteListToU32leList(
-              Util.getSubArray(data, idx, idx + (int) (size & Mask.invert32(0x03))));
-      this.writeBlockMemoryAligned32(addr, data32);
-      addr += size & Mask.invert32(0x03);
-      idx += size & Mask.invert32(0x03);
-      size -= size & Mask.invert32(0x03);
-    }
+    try (Batch batch = this.dp.batch()) {
+      // Try to write 8 bits data
+      if ((size > 0) && (addr & 0x01) != 0) {
+        this.writeMemory(addr, (data[offset] & 0xFF), 8);
+        size -= 1;
+        addr += 1;
+        offset += 1;
+      }
 
-    // Try to write 16 bits data
-    if (size > 1) {
-      this.writeMemory(addr, (data[idx] & 0xFF) | ((data[idx + 1] & 0xFF) << 8), 16);
-      size -= 2;
-      addr += 2;
-      idx += 2;
-    }
+      // Try to write 16 bits data
+      if ((size > 1) && (addr & 0x02) != 0) {
+        this.writeMemory(addr, (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8), 16);
+        size -= 2;
+        addr += 2;
+        offset += 2;
+      }
+
+      // Write aligned block of 32 bits
+      if (size >= 4) {
+        int count = size / 4;
+        int[] data32 = new int[count];
+        Conversion.byteListToU32leList(data, offset, data32, 0, count);
+        this.writeBlockMemoryAligned32(addr, data32, 0, count);
+        addr += size & Mask.invert32(0x03);
+        offset += size & Mask.invert32(0x03);
+        size -= size & Mask.invert32(0x03);
+      }
+
+      // Try to write 16 bits data
+      if (size > 1) {
+        this.writeMemory(addr, (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8), 16);
+        size -= 2;
+        addr += 2;
+        offset += 2;
+      }
 
-    // Try to write 8 bits data
-    if (size > 0) {
-      this.writeMemory(addr, (data[idx] & 0xFF), 8);
-      size -= 1;
-      addr += 1;
-      idx += 1;
+      // Try to write 8 bits data
+      if (size > 0) {
+        this.writeMemory(addr, (data[offset] & 0xFF), 8);
+        size -= 1;
+        addr += 1;
+        offset += 1;
+      }
     }
   }
 
@@ -384,16 +626,38 @@ public class MemAp extends AccessPort {
    */
   @Override
   public void writeBlockMemoryAligned32(long addr, long[] data) throws TimeoutException, Error {
-    int size = data.length;
-    while (size > 0) {
-      long n = this.autoIncrementPageSize - (addr & (this.autoIncrementPageSize - 1));
-      if (size * 4 < n) {
-        n = (size * 4) & 0xFFFFFFFCL;
+    this.writeBlockMemoryAligned32(addr, Conversion.toIntArray(data), 0, data.length);
+  }
+
+  /*
+   * Write length aligned words from words, starting at offset.
+   * The block is split so no transfer crosses an auto increment page. The TAR updates and
+   * DRW bursts of all the chunks are queued and flushed once at the end.
+   */
+  @Override
+  @SuppressWarnings("try")
+  public void writeBlockMemoryAligned32(long addr, int[] words, int offset, int length)
+      throws TimeoutException, Error {
+    long startAddr = addr;
+    try (Batch batch = this.dp.batch()) {
+      while (length > 0) {
+        long n = this.autoIncrementPageSize - (addr & (this.autoIncrementPageSize - 1));
+        if (length * 4 < n) {
+          n = (length * 4) & 0xFFFFFFFCL;
+        }
+        int count = (int) (n / 4);
+        this.writeBlock32(addr, words, offset, count);
+        offset += count;
+        length -= count;
+        addr += n;
       }
-      this.writeBlock32(addr, Util.getSubArray(data, 0, (int) (n / 4)));
-      Util.getSubArray(data, (int) (n / 4), null);
-      size -= n / 4;
-      addr += n;
+    } catch (TransferFaultError error) {
+      // A fault reported by the final flush can't be traced to a chunk.
+      // Annotate it with the start of the block.
+      if (error.getFaultAddress() == null) {
+        error.setFaultAddress(startAddr);
+      }
+      throw error;
     }
   }
 
@@ -403,17 +667,45 @@ public class MemAp extends AccessPort {
    */
   @Override
   public long[] readBlockMemoryAligned32(long addr, int size) throws TimeoutException, Error {
-    long[] resp = new long[0];
-    while (size > 0) {
+    int[] words = new int[size];
+    this.readBlockMemoryAligned32(addr, words, 0, size);
+    return Conversion.toU32Array(words);
+  }
+
+  /*
+   * Read length aligned words into dst, starting at offset.
+   * The block is split so no transfer crosses an auto increment page. All the chunks are
+   * queued first, so the reads of one chunk are in flight while the previous one is decoded.
+   */
+  @Override
+  @SuppressWarnings("try")
+  public void readBlockMemoryAligned32(long addr, int[] dst, int offset, int length)
+      throws TimeoutException, Error {
+    List<BlockRead> reads = new ArrayList<BlockRead>();
+    try (Batch batch = this.dp.batch()) {
+      this.readBlockMemoryAligned32Later(addr, dst, offset, length, reads);
+      for (BlockRead read : reads) {
+        this.readBlock32Async(read);
+      }
+    }
+  }
+
+  /*
+   * Queue the reads of a block of aligned words, one per auto increment page.
+   */
+  private void readBlockMemoryAligned32Later(long addr, int[] dst, int offset, int length,
+      List<BlockRead> reads) throws TimeoutException, Error {
+    while (length > 0) {
       long n = this.autoIncrementPageSize - (addr & (this.autoIncrementPageSize - 1));
-      if (size * 4 < n) {
-        n = (size * 4) & 0xFFFFFFFCL;
+      if (length * 4 < n) {
+        n = (length * 4) & 0xFFFFFFFCL;
       }
-      resp = Util.appendDataInArray(resp, this.readBlock32(addr, (int) n / 4));
-      size -= n / 4;
+      int count = (int) (n / 4);
+      reads.add(this.readBlock32Later(addr, dst, offset, count));
+      offset += count;
+      length -= count;
       addr += n;
     }
-    return resp;
   }
 
   @Override
@@ -16,8 +16,12 @@
 package br.org.certi.jocd.coresight;
 
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
-import br.org.certi.jocd.util.Mask;
+import br.org.certi.jocd.util.Conversion;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,6 +32,10 @@ public class RomTable extends CoreSightComponent {
   private final static String CLASS_NAME = RomTable.class.getName();
   private final static Logger LOGGER = Logger.getLogger(CLASS_NAME);
 
+  // Root ROM tables already discovered, by DPIDR, AP IDR and ROM table address. Parts of the
+  // same type have the same tables, so connecting to one again doesn't walk them.
+  private static final Map<String, RomTable> discoveredTables = new HashMap<String, RomTable>();
+
   private RomTable parent;
   private long number;
   private long entrySize = 0;
@@ -55,8 +63,95 @@ public class RomTable extends CoreSightComponent {
     this.number = this.parent != null ? (this.parent.number + 1) : 0;
   }
 
+  /*
+   * Return the root ROM table of the AP. Once it was read completely, it isn't read again from
+   * the target for a part with the same DPIDR, AP IDR and ROM table address.
+   */
+  public static RomTable discover(AccessPort ap) throws TimeoutException, Error {
+    String key = String.format("%08x:%08x:%08x", ap.dp.getDpidr(), ap.idr, ap.getRomAddr());
+
+    RomTable table;
+    synchronized (discoveredTables) {
+      table = discoveredTables.get(key);
+    }
+    if (table != null) {
+      LOGGER.log(Level.FINE, "Using the ROM table discovered before for " + key);
+      return table.copy(ap, null);
+    }
+
+    table = new RomTable(ap);
+    table.init();
+    if (!table.isComplete()) {
+      // Read again next time, the AP may not have been ready or a part may have been off.
+      LOGGER.log(Level.FINE, "Not keeping the incomplete ROM table discovered for " + key);
+      return table;
+    }
+    synchronized (discoveredTables) {
+      discoveredTables.put(key, table);
+    }
+    return table;
+  }
+
+  /*
+   * Check if this table, its components and its child tables were all decoded.
+   */
+  private boolean isComplete() {
+    if (!this.valid || !this.isRomTable) {
+      return false;
+    }
+    for (CoreSightComponent cmp : this.components) {
+      if (!cmp.valid) {
+        return false;
+      }
+      if (cmp instanceof RomTable && !((RomTable) cmp).isComplete()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Forget the ROM tables discovered so far.
+   */
+  public static void clearDiscoveredTables() {
+    synchronized (discoveredTables) {
+      discoveredTables.clear();
+    }
+  }
+
+  /*
+   * Return a copy of this table and of its components, to be accessed through ap.
+   */
+  private RomTable copy(AccessPort ap, RomTable parentTable) {
+    RomTable table = new RomTable(ap, this.topAddress, parentTable);
+    table.copyIdRegisters(this);
+    table.entrySize = this.entrySize;
+    for (CoreSightComponent cmp : this.components) {
+      if (cmp instanceof RomTable) {
+        table.components.add(((RomTable) cmp).copy(ap, table));
+      } else {
+        CoreSightComponent copy = new CoreSightComponent();
+        copy.setup(ap, cmp.topAddress);
+        copy.copyIdRegisters(cmp);
+        table.components.add(copy);
+      }
+    }
+    return table;
+  }
+
+  public List<CoreSightComponent> getComponents() {
+    return Collections.unmodifiableList(this.components);
+  }
+
   public void init() throws TimeoutException, Error {
     this.readIdRegisters();
+    this.initTable();
+  }
+
+  /*
+   * Read the table, once its ID registers are known.
+   */
+  private void initTable() throws TimeoutException, Error {
     if (!this.isRomTable) {
       LOGGER.log(Level.WARNING, String
           .format("Warning: ROM table @ 0x%08x has unexpected CIDR component class (0x%x)",
@@ -80,8 +175,10 @@ public class RomTable extends CoreSightComponent {
     // Switch to the 8-bit table entry reader if we already know the entry size.
     if (this.entrySize == 8) {
       this.readTable8();
+      return;
     }
 
+    List<Long> tableEntries = new ArrayList<Long>();
     long entryAddress = this.address;
     boolean foundEnd = false;
     int entriesRead = 0;
@@ -111,55 +208,111 @@ public class RomTable extends CoreSightComponent {
           foundEnd = true;
           break;
         }
-        this.handleTableEntry(entry);
+        tableEntries.add(entry);
 
         entryAddress += 4;
       }
     }
+    this.handleTableEntries(tableEntries);
   }
 
   public void readTable8() throws TimeoutException, Error {
+    List<Long> tableEntries = new ArrayList<Long>();
     long entryAddress = this.address;
+    boolean foundEnd = false;
+    while (!foundEnd && tableEntries.size() < ROM_TABLE_MAX_ENTRIES) {
+      // Each 32-bit table entry is spread across four bytes. Read the bytes of several entries
+      // at a time for performance.
+      int readCount = Math
+          .min(ROM_TABLE_MAX_ENTRIES - tableEntries.size(), ROM_TABLE_ENTRY_READ_COUNT);
+      long[] addresses = new long[readCount * 4];
+      int[] transferSizes = new int[readCount * 4];
+      for (int i = 0; i < addresses.length; i++) {
+        addresses[i] = entryAddress + i * 4;
+        transferSizes[i] = 8;
+      }
+      long[] bytes = this.ap.readMemoryGather(addresses, transferSizes);
 
-    while (true) {
-      // Read the full 32-bit table entry spread across four bytes.
-      long entry = this.ap.read8(entryAddress);
-      entry |= this.ap.read8(entryAddress + 4) << 8;
-      entry |= this.ap.read8(entryAddress + 8) << 16;
-      entry |= this.ap.read8(entryAddress + 12) << 24;
+      for (int i = 0; i < readCount; i++) {
+        long entry = this.extractIdRegisterValue(bytes, i * 4);
 
-      // Zero entry indicates the end of the table.
-      if (entry == 0) {
-        break;
+        // Zero entry indicates the end of the table.
+        if (entry == 0) {
+          foundEnd = true;
+          break;
+        }
+        tableEntries.add(entry);
       }
-      this.handleTableEntry(entry);
-
-      entryAddress += 16;
+      entryAddress += readCount * 16;
     }
+    this.handleTableEntries(tableEntries);
   }
 
-  public void handleTableEntry(long entry) throws TimeoutException, Error {
-    // Nonzero entries can still be disabled, so check the present bit before handling.
-    if ((entry & ROM_TABLE_ENTRY_PRESENT_MASK) == 0) {
+  /*
+   * Read the components of the table. The ID registers of all of them are read together, then
+   * the DEVID and DEVTYPE registers of the CoreSight ones.
+   */
+  public void handleTableEntries(List<Long> entries) throws TimeoutException, Error {
+    List<CoreSightComponent> cmps = new ArrayList<CoreSightComponent>();
+    for (long entry : entries) {
+      // Nonzero entries can still be disabled, so check the present bit before handling.
+      if ((entry & ROM_TABLE_ENTRY_PRESENT_MASK) == 0) {
+        continue;
+      }
+
+      // Get the component's top 4k address.
+      long offset = entry & ROM_TABLE_ADDR_OFFSET_MASK;
+      long address = 0xFFFFFFFFL & (this.address + offset);
+
+      // Create component instance.
+      CoreSightComponent cmp = new CoreSightComponent();
+      cmp.setup(this.ap, address);
+      cmps.add(cmp);
+    }
+    if (cmps.isEmpty()) {
       return;
     }
 
-    // Get the component's top 4k address.
-    long offset = entry & ROM_TABLE_ADDR_OFFSET_MASK;
-    long address = 0xFFFFFFFFL & (this.address + offset);
+    long[] addresses = new long[cmps.size()];
+    int[][] regs = new int[cmps.size()][IDR_COUNT];
+    for (int i = 0; i < cmps.size(); i++) {
+      addresses[i] = cmps.get(i).topAddress + PIDR4;
+    }
+    this.ap.readBlockMemoryGather(addresses, regs);
 
-    // Create component instance.
-    CoreSightComponent cmp = new CoreSightComponent();
-    cmp.setup(this.ap, address);
-    cmp.readIdRegisters();
+    List<CoreSightComponent> coreSightCmps = new ArrayList<CoreSightComponent>();
+    for (int i = 0; i < cmps.size(); i++) {
+      CoreSightComponent cmp = cmps.get(i);
+      cmp.decodeIdRegisters(Conversion.toU32Array(regs[i]));
+      if (cmp.valid && cmp.componentClass == CIDR_CORESIGHT_CLASS) {
+        coreSightCmps.add(cmp);
+      }
+    }
 
-    LOGGER.log(Level.INFO, String.format("[%d]%s", this.components.size(), cmp.toString()));
+    if (!coreSightCmps.isEmpty()) {
+      addresses = new long[coreSightCmps.size()];
+      regs = new int[coreSightCmps.size()][2];
+      for (int i = 0; i < coreSightCmps.size(); i++) {
+        addresses[i] = coreSightCmps.get(i).topAddress + DEVID;
+      }
+      this.ap.readBlockMemoryGather(addresses, regs);
+      for (int i = 0; i < coreSightCmps.size(); i++) {
+        coreSightCmps.get(i).devid = regs[i][0] & 0xFFFFFFFFL;
+        coreSightCmps.get(i).devtype = regs[i][1] & 0xFFFFFFFFL;
+      }
+    }
 
-    // Recurse into child ROM tables.
-    if (cmp.isRomTable) {
-      RomTable romTableCmp = new RomTable(this.ap, address, this);
-      romTableCmp.init();
+    for (CoreSightComponent cmp : cmps) {
+      LOGGER.log(Level.INFO, String.format("[%d]%s", this.components.size(), cmp.toString()));
+
+      // Recurse into child ROM tables. Its ID registers were read above.
+      if (cmp.isRomTable) {
+        RomTable romTableCmp = new RomTable(this.ap, cmp.topAddress, this);
+        romTableCmp.copyIdRegisters(cmp);
+        romTableCmp.initTable();
+        cmp = romTableCmp;
+      }
+      this.components.add(cmp);
     }
-    this.components.add(cmp);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.dapaccess;
+
+import br.org.certi.jocd.dapaccess.dapexceptions.Error;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Scope in which all transfers of a link are deferred.
+ *
+ * Writes and queued reads are collected and sent when the outermost batch is closed.
+ * Explicit flushes of the DebugPort and Target are postponed until then, while reads
+ * whose value is needed inside the batch are still resolved on demand.
+ * Batches can be nested; only the outermost one flushes.
+ *
+ *   try (Batch batch = target.batch()) {
+ *     ...
+ *   }
+ *
+ * The batch variable is only there to be closed, so methods using the scope are annotated with
+ * SuppressWarnings("try").
+ */
+public class Batch implements AutoCloseable {
+
+  /*
+   * Verification to run once the batch has been flushed.
+   */
+  public interface Check {
+
+    void verify() throws TimeoutException, Error;
+  }
+
+  private final DapAccessCmsisDap link;
+  private boolean closed = false;
+
+  /*
+   * Constructor.
+   */
+  public Batch(DapAccessCmsisDap link) {
+    this.link = link;
+    link.beginBatch();
+  }
+
+  /*
+   * Send everything collected by the batch.
+   * Override to add error handling of the layer that opened the batch.
+   */
+  protected void flush() throws TimeoutException, Error {
+    this.link.flush();
+  }
+
+  @Override
+  public void close() throws TimeoutException, Error {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+
+    // Only the outermost batch flushes.
+    if (!this.link.endBatch()) {
+      return;
+    }
+    this.flush();
+    this.link.runBatchChecks();
+  }
+}
@@ -195,6 +195,10 @@ public class CmsisDapProtocol {
   public static final int DAP_TRANSFER_OK = 1;
   public static final int DAP_TRANSFER_WAIT = 2;
   public static final int DAP_TRANSFER_FAULT = 4;
+  public static final int DAP_TRANSFER_MISMATCH = 0x10;
+
+  // Default DAP_TransferConfigure wait retry.
+  public static final int DEFAULT_WAIT_RETRY = 0x0050;
 
   /*
    * Constructor.
@@ -313,7 +317,7 @@ public class CmsisDapProtocol {
    * values.
    */
   public byte transferConfigure() throws TimeoutException, Error {
-    return transferConfigure((byte) 0x00, 0x0050, 0x0000);
+    return transferConfigure((byte) 0x00, DEFAULT_WAIT_RETRY, 0x0000);
   }
 
   public byte transferConfigure(byte idleCycles, int waitRetry, int matchRetry)
@@ -19,9 +19,12 @@ import br.org.certi.jocd.dapaccess.CmsisDapProtocol.CommandId;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.dapaccess.dapexceptions.TransferError;
 import br.org.certi.jocd.dapaccess.dapexceptions.TransferFaultError;
+import br.org.certi.jocd.dapaccess.dapexceptions.TransferMismatchError;
 import br.org.certi.jocd.dapaccess.dapexceptions.TransferTimeoutError;
 import br.org.certi.jocd.util.Util;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,6 +38,8 @@ import java.util.logging.Logger;
  * decides if it is more efficient to use DAP_Transfer or DAP_TransferBlock.
  * The payload to send over the layer below is constructed with
  * encode_data.  The response to the command is decoded with decode_data.
+ * Value match reads and match mask writes carry a word and return no data, so they are
+ * counted as writes, and they force DAP_Transfer.
  */
 public class Command {
 
@@ -47,19 +52,49 @@ public class Command {
   private int writeCount = 0;
   private boolean blockAllowed = true;
   private Byte blockRequest;
+  // Requests added to this command. Only the first dataCount tuples are
+  // valid, the others are kept to be reused after reset().
   private List<DataTuple> data = new ArrayList<DataTuple>();
+  private int dataCount = 0;
   private Byte dapIndex;
   private boolean dataEncoded = false;
 
+  // Words to be written, copied when added so the caller can reuse its array.
+  private final int[] writeWords;
+  private int writeWordsCount = 0;
+
+  // Packet buffer, reused every time this command is encoded.
+  private final byte[] buf;
+
   /*
    * Constructor.
    */
   public Command(int size) {
     super();
     this.size = size;
+    this.writeWords = new int[size / 4 + 1];
+    this.buf = new byte[size];
     LOGGER.log(Level.FINE, "New Command");
   }
 
+  /*
+   * Clear this command so it can be reused for another packet.
+   */
+  public void reset() {
+    this.readCount = 0;
+    this.writeCount = 0;
+    this.blockAllowed = true;
+    this.blockRequest = null;
+    this.dataCount = 0;
+    this.dapIndex = null;
+    this.dataEncoded = false;
+    this.writeWordsCount = 0;
+  }
+
+  public int getSize() {
+    return this.size;
+  }
+
   /*
    * Return the number of words free in the transmit packet
    */
@@ -116,14 +151,17 @@ public class Command {
       return 0;
     }
 
-    // Block transfers must use the same request.
+    // Block transfers must use the same request and can't do value matching.
     boolean blockAllowed = this.blockAllowed;
     if (this.blockRequest != null && request != this.blockRequest.byteValue()) {
       blockAllowed = false;
     }
+    if (isMatch(request)) {
+      blockAllowed = false;
+    }
 
     // Compute the portion of the request that will fit in this packet.
-    boolean isRead = (request & DapAccessCmsisDap.READ) != 0;
+    boolean isRead = returnsData(request);
     int free = this.getFreeWords(blockAllowed, isRead);
     int size = Math.min(count, free);
 
@@ -132,11 +170,13 @@ public class Command {
       int maxCount = this.writeCount + this.readCount + size;
       int delta = maxCount - 255;
       size = Math.min(size - delta, size);
-      LOGGER.log(Level.FINE, String.format(
-          "get_request_space(%d, %02x:%s)[wc=%d, rc=%d, ba=%b->%b] -> (sz=%d, free=%d, delta=%d)",
-          count, request, isRead ? 'r' : 'w', this.writeCount, this.readCount, this.blockAllowed,
-          blockAllowed, size, free, delta));
-    } else {
+      if (LOGGER.isLoggable(Level.FINE)) {
+        LOGGER.log(Level.FINE, String.format(
+            "get_request_space(%d, %02x:%s)[wc=%d, rc=%d, ba=%b->%b] -> (sz=%d, free=%d, delta=%d)",
+            count, request, isRead ? 'r' : 'w', this.writeCount, this.readCount,
+            this.blockAllowed, blockAllowed, size, free, delta));
+      }
+    } else if (LOGGER.isLoggable(Level.FINE)) {
       LOGGER.log(Level.FINE, String
           .format("get_request_space(%d, %02x:%s)[wc=%d, rc=%d, ba=%b->%b] -> (sz=%d, free=%d)",
               count, request, isRead ? 'r' : 'w', this.writeCount, this.readCount,
@@ -158,13 +198,36 @@ public class Command {
    * Return true if no transfers have been added to this packet
    */
   public boolean getEmpty() {
-    return this.data == null || this.data.size() == 0;
+    return this.dataCount == 0;
   }
 
   /*
    * Add a single or block register transfer operation to this command
    */
   public void add(int count, byte request, long[] words, Byte dapIndex) throws Error {
+    this.add(count, request, null, words, 0, dapIndex);
+  }
+
+  /*
+   * Add a single or block register transfer operation to this command,
+   * taking count words from words, starting at offset.
+   */
+  public void add(int count, byte request, long[] words, int offset, Byte dapIndex)
+      throws Error {
+    this.add(count, request, null, words, offset, dapIndex);
+  }
+
+  /*
+   * Add a single or block register transfer operation to this command,
+   * taking count words from words, starting at offset.
+   */
+  public void add(int count, byte request, int[] words, int offset, Byte dapIndex)
+      throws Error {
+    this.add(count, request, words, null, offset, dapIndex);
+  }
+
+  private void add(int count, byte request, int[] words, long[] longWords, int offset,
+      Byte dapIndex) throws Error {
     // Assert this.dataEncoded == false.
     if (this.dataEncoded) {
       throw new Error("add: Unexpected dataEncoded value (true)");
@@ -185,6 +248,10 @@ public class Command {
       this.blockAllowed = false;
     }
 
+    if (isMatch(request)) {
+      this.blockAllowed = false;
+    }
+
     // Assert !this.blockAllowed || this.blockRequest == request.
     if (this.blockAllowed && this.blockRequest.byteValue() != request) {
       throw new Error(
@@ -192,18 +259,56 @@ public class Command {
               + "), request: (" + request + ")");
     }
 
-    if ((request & DapAccessCmsisDap.READ) != 0) {
+    if (returnsData(request)) {
       this.readCount += count;
     } else {
       this.writeCount += count;
     }
 
-    this.data.add(new DataTuple(count, request, words));
+    // Keep a copy of the words to write, as they are only encoded when the packet is sent.
+    int[] tupleWords = null;
+    int tupleOffset = 0;
+    if (words != null) {
+      tupleWords = this.writeWords;
+      tupleOffset = this.writeWordsCount;
+      System.arraycopy(words, offset, this.writeWords, this.writeWordsCount, count);
+      this.writeWordsCount += count;
+    } else if (longWords != null) {
+      tupleWords = this.writeWords;
+      tupleOffset = this.writeWordsCount;
+      for (int i = 0; i < count; i++) {
+        this.writeWords[this.writeWordsCount++] = (int) longWords[offset + i];
+      }
+    }
+
+    if (this.dataCount < this.data.size()) {
+      this.data.get(this.dataCount).set(count, request, tupleWords, tupleOffset);
+    } else {
+      this.data.add(new DataTuple(count, request, tupleWords, tupleOffset));
+    }
+    this.dataCount++;
+
+    if (LOGGER.isLoggable(Level.FINE)) {
+      LOGGER.log(Level.FINE, String
+          .format("add(%d, %02x:%s) -> [wc=%d, rc=%d, ba=%b]", count, request,
+              returnsData(request) ? 'r' : 'w', this.writeCount,
+              this.readCount, this.blockAllowed));
+    }
+  }
+
+  /*
+   * Return true if the request is a value match read or a match mask write.
+   */
+  private static boolean isMatch(byte request) {
+    return (request & (DapAccessCmsisDap.VALUE_MATCH | DapAccessCmsisDap.MATCH_MASK)) != 0;
+  }
 
-    LOGGER.log(Level.FINE, String
-        .format("add(%d, %02x:%s) -> [wc=%d, rc=%d, ba=%b]", count, request,
-            ((request & DapAccessCmsisDap.READ) != 0) ? 'r' : 'w', this.writeCount, this.readCount,
-            this.blockAllowed));
+  /*
+   * Return true if the request returns a word in the response.
+   */
+  private static boolean returnsData(byte request) {
+    return (request & DapAccessCmsisDap.READ) != 0
+        && (request & DapAccessCmsisDap.VALUE_MATCH) == 0;
   }
 
   /*
@@ -217,7 +322,7 @@ public class Command {
       throw new Error("encodeTransferData: Unexpected getEmpty() value (true)");
     }
 
-    byte[] buf = new byte[this.size];
+    byte[] buf = this.buf;
     int transferCount = this.readCount + this.writeCount;
     int pos = 0;
     buf[pos] = CommandId.DAP_TRANSFER.getValue();
@@ -226,22 +331,23 @@ public class Command {
     pos += 1;
     buf[pos] = (byte) transferCount;
     pos += 1;
-    for (DataTuple dt : this.data) {
+    for (int t = 0; t < this.dataCount; t++) {
+      DataTuple dt = this.data.get(t);
       int count = dt.getCount();
       byte request = dt.getRequest();
-      long[] writeList = dt.getData();
+      int[] writeList = dt.getData();
 
-      // Assert writeList == null || writeList.length <= count.
-      if (writeList != null && writeList.length > count) {
+      // Assert writeList == null || writeList.length - offset >= count.
+      if (writeList != null && writeList.length - dt.getOffset() < count) {
         throw new Error(
-            "encodeTransferData: missing writeList. writeList isn't null and length > count.");
+            "encodeTransferData: missing writeList. writeList isn't null and length < count.");
       }
 
-      int writePos = 0;
+      int writePos = dt.getOffset();
       for (int i = 0; i < count; i++) {
         buf[pos] = (byte) request;
         pos += 1;
-        if ((request & DapAccessCmsisDap.READ) == 0) {
+        if (!returnsData(request)) {
           buf[pos] = (byte) ((writeList[writePos] >> (8 * 0)) & 0xFF);
           pos += 1;
           buf[pos] = (byte) ((writeList[writePos] >> (8 * 1)) & 0xFF);
@@ -254,15 +360,16 @@ public class Command {
         }
       }
     }
+    Arrays.fill(buf, pos, this.size, (byte) 0);
     return buf;
   }
 
   /*
    * Take a byte array and extract the data from it
    * Decode the response returned by a DAP_Transfer CMSIS-DAP command
-   * and return it as an array of bytes.
+   * and return the offset of the read data inside the response.
    */
-  private byte[] decodeTransferData(byte[] data) throws TransferError, Error {
+  private int decodeTransferData(byte[] data) throws TransferError, Error {
     // Assert this.getEmpty() == false.
     if (this.getEmpty()) {
       throw new Error("decodeTransferData: Unexpected getEmpty() value (true)");
@@ -272,6 +379,10 @@ public class Command {
       throw new IllegalArgumentException("DAP_TRANSFER response error");
     }
 
+    if ((data[2] & CmsisDapProtocol.DAP_TRANSFER_MISMATCH) != 0) {
+      throw new TransferMismatchError();
+    }
+
     if ((data[2] & 0xFF) != CmsisDapProtocol.DAP_TRANSFER_OK) {
       if ((data[2] & 0xFF) == CmsisDapProtocol.DAP_TRANSFER_FAULT) {
         throw new TransferFaultError();
@@ -288,7 +399,7 @@ public class Command {
       throw new TransferError();
     }
 
-    return Util.getSubArray(data, 3, 3 + (4 * this.readCount));
+    return 3;
   }
 
   /*
@@ -302,7 +413,7 @@ public class Command {
       throw new Error("encodeTransferBlockData: Unexpected getEmpty() value (true)");
     }
 
-    byte[] buf = new byte[this.size];
+    byte[] buf = this.buf;
     int transferCount = this.readCount + this.writeCount;
 
     // Assert !(this.readCount != 0 && this.writeCount != 0).
@@ -326,15 +437,16 @@ public class Command {
     pos += 1;
     buf[pos] = this.blockRequest;
     pos += 1;
-    for (DataTuple dt : this.data) {
+    for (int t = 0; t < this.dataCount; t++) {
+      DataTuple dt = this.data.get(t);
       int count = dt.getCount();
       int request = dt.getRequest();
-      long[] writeList = dt.getData();
+      int[] writeList = dt.getData();
 
-      // WriteList must be <= count.
-      if (writeList != null && writeList.length > count) {
+      // WriteList must have count words from offset.
+      if (writeList != null && writeList.length - dt.getOffset() < count) {
         throw new Error(
-            "encodeTransferBlockData: Expected: writeList.length <= count");
+            "encodeTransferBlockData: Expected: writeList.length - offset >= count");
       }
 
       // Assert request == this.blockRequest.
@@ -342,7 +454,7 @@ public class Command {
         throw new Error("encodeTransferBlockData: request == this.blockRequest");
       }
 
-      int writePos = 0;
+      int writePos = dt.getOffset();
       if ((request & DapAccessCmsisDap.READ) == 0) {
         // If it is not a read, than writeList can not be null.
         if (writeList == null) {
@@ -363,15 +475,16 @@ public class Command {
         }
       }
     }
+    Arrays.fill(buf, pos, this.size, (byte) 0);
     return buf;
   }
 
   /*
    * Take a byte array and extract the data from it
    * Decode the response returned by a DAP_TransferBlock
-   * CMSIS-DAP command and return it as an array of bytes.
+   * CMSIS-DAP command and return the offset of the read data inside the response.
    */
-  private byte[] decodeTransferBlockData(byte[] data) throws TransferError, Error {
+  private int decodeTransferBlockData(byte[] data) throws TransferError, Error {
     // Assert this.getEmpty() == false.
     if (this.getEmpty()) {
       throw new Error("decodeTransferBlockData: Unexpected getEmpty() value (true)");
@@ -398,7 +511,7 @@ public class Command {
       throw new TransferError();
     }
 
-    return Util.getSubArray(data, 4, 4 + (4 * this.readCount));
+    return 4;
   }
 
   /*
@@ -425,6 +538,23 @@ public class Command {
    * Decode the response data
    */
   public byte[] decodeData(byte[] data) throws TransferError, Error {
+    int offset = this.decodeDataOffset(data);
+    return Util.getSubArray(data, offset, offset + (4 * this.readCount));
+  }
+
+  /*
+   * Decode the response data, appending the read data to responseBuf
+   * without any intermediate copy.
+   */
+  public void decodeData(byte[] data, ByteBuffer responseBuf) throws TransferError, Error {
+    int offset = this.decodeDataOffset(data);
+    responseBuf.put(data, offset, 4 * this.readCount);
+  }
+
+  /*
+   * Check the response data and return the offset of the read data
+   */
+  private int decodeDataOffset(byte[] data) throws TransferError, Error {
     // Assert this.getEmpty() == false.
     if (this.getEmpty()) {
       throw new Error("decodeData: Unexpected getEmpty() value (true)");
@@ -436,10 +566,9 @@ public class Command {
     }
 
     if (this.blockAllowed) {
-      data = this.decodeTransferBlockData(data);
+      return this.decodeTransferBlockData(data);
     } else {
-      data = this.decodeTransferData(data);
+      return this.decodeTransferData(data);
     }
-    return data;
   }
 }
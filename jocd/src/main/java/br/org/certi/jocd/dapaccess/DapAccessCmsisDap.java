@@ -24,7 +24,8 @@ import br.org.certi.jocd.dapaccess.connectioninterface.ConnectionInterface;
 import br.org.certi.jocd.dapaccess.dapexceptions.DeviceError;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.dapaccess.dapexceptions.TransferError;
-import br.org.certi.jocd.util.Util;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -44,28 +45,56 @@ public class DapAccessCmsisDap {
   public static final byte DP_ACC = 0 << 0;
   public static final byte READ = 1 << 1;
   public static final byte WRITE = 0 << 1;
+  public static final byte VALUE_MATCH = 1 << 4;
+  public static final byte MATCH_MASK = 1 << 5;
 
   public static final int DEFAULT_FREQUENCY = 1000000; // 1MHz default clock
+  // Each retry is one SWD read, so about 50 ms at the default clock.
+  public static final int DEFAULT_MATCH_RETRY = 1000;
 
   private boolean deferredTransfer = false;
+  // Nesting depth of open batches and the deferred state to restore when they end.
+  private int batchDepth = 0;
+  private boolean batchSavedDeferredTransfer = false;
+  private final List<Batch.Check> batchChecks = new ArrayList<Batch.Check>();
   private int packetCount = 0;
   private String uniqueId;
   private int frequency;
+  private int matchRetry = DEFAULT_MATCH_RETRY;
+  // Match mask last written to the probe, which keeps it between commands. -1 means unknown.
+  private long matchMask = -1;
   private Port dapPort = Port.DEFAULT;
   private int packetSize = 0;
   private CmsisDapProtocol protocol;
   private LinkedList<Transfer> transferList;
   private Command crntCmd;
   private ArrayDeque<Command> commandsToRead;
-  private byte[] commandsResponseBuf;
+  private ArrayDeque<Command> freeCommands;
+  private ByteBuffer commandsResponseBuf;
+
+  // Connection owned by this link. Each link talks to its own probe, so
+  // several links can be used at the same time from different threads.
+  private ConnectionInterface connectionInterface;
+  private PacketPipeline pipeline;
+
+  // Scratch word used by single register writes. Commands copy it when it is added.
+  private final int[] singleWord = new int[1];
 
   /*
    * Constructor.
    */
   public DapAccessCmsisDap(String uniqueId) {
+    this(uniqueId, null);
+  }
+
+  /*
+   * Constructor for a link bound to an already enumerated device.
+   */
+  public DapAccessCmsisDap(String uniqueId, ConnectionInterface connectionInterface) {
     super();
     this.uniqueId = uniqueId;
     this.frequency = DEFAULT_FREQUENCY;
+    this.connectionInterface = connectionInterface;
   }
 
   public ArrayDeque getCommandsToRead() {
@@ -76,22 +105,31 @@ public class DapAccessCmsisDap {
     return crntCmd;
   }
 
+  public ConnectionInterface getConnectionInterface() {
+    return connectionInterface;
+  }
+
   /*
    * Get the connected USB devices
+   * Jocd.connectionInterface is only used to enumerate devices. Enumeration
+   * is serialized as the platform USB layers are not reentrant.
    */
-  private static List<ConnectionInterface> getDevices() {
+  private static synchronized List<ConnectionInterface> getDevices() throws DeviceError {
     if (DapSettings.useWs) {
       // Not implemented!
       LOGGER.log(Level.SEVERE, "Not implemented! Trying to use WS interface.");
       return null;
     }
+    if (Jocd.connectionInterface == null) {
+      throw new DeviceError("Connection interface not initialized");
+    }
     return Jocd.connectionInterface.getAllConnectedDevices();
   }
 
   /*
    * Return an array of all mbed boards connected
    */
-  public static List<DapAccessCmsisDap> getConnectedDevices() {
+  public static List<DapAccessCmsisDap> getConnectedDevices() throws DeviceError {
 
     // Store all the DAP links.
     List<DapAccessCmsisDap> allDAPLinks = new ArrayList<DapAccessCmsisDap>();
@@ -113,7 +151,7 @@ public class DapAccessCmsisDap {
 
       try {
         String uniqueId = iface.getSerialNumber();
-        DapAccessCmsisDap dapLink = new DapAccessCmsisDap(uniqueId);
+        DapAccessCmsisDap dapLink = new DapAccessCmsisDap(uniqueId, iface);
         allDAPLinks.add(dapLink);
       } catch (Exception e) {
         LOGGER.log(Level.SEVERE,
@@ -125,23 +163,26 @@ public class DapAccessCmsisDap {
   }
 
   public void open() throws TimeoutException, Error {
-    List<ConnectionInterface> allDevices = this.getDevices();
-    for (ConnectionInterface device : allDevices) {
-      try {
-        String uniqueId = getUniqueId(device);
-        if (this.uniqueId.equals(uniqueId)) {
-          Jocd.connectionInterface = device;
+    if (this.connectionInterface == null) {
+      List<ConnectionInterface> allDevices = getDevices();
+      for (ConnectionInterface device : allDevices) {
+        try {
+          String uniqueId = getUniqueId(device);
+          if (this.uniqueId.equals(uniqueId)) {
+            this.connectionInterface = device;
+            break;
+          }
+        } catch (Exception exception) {
+          LOGGER.log(Level.SEVERE, "Failed to get unique id for open", exception);
         }
-      } catch (Exception exception) {
-        LOGGER.log(Level.SEVERE, "Failed to get unique id for open", exception);
       }
     }
-    if (Jocd.connectionInterface == null) {
+    if (this.connectionInterface == null) {
       throw new DeviceError("Unable to open device");
     }
 
-    Jocd.connectionInterface.open();
-    this.protocol = new CmsisDapProtocol(Jocd.connectionInterface);
+    this.connectionInterface.open();
+    this.protocol = new CmsisDapProtocol(this.connectionInterface);
 
     if (DapSettings.limitPackets) {
       this.packetCount = 1;
@@ -151,20 +192,33 @@ public class DapAccessCmsisDap {
           .intValue();
     }
 
-    Jocd.connectionInterface.setPacketCount(this.packetCount);
+    this.connectionInterface.setPacketCount(this.packetCount);
     this.packetSize = (Integer) this.protocol.dapInfo(IdInfo.PACKET_SIZE);
-    Jocd.connectionInterface.setPacketSize(this.packetSize);
+    this.connectionInterface.setPacketSize(this.packetSize);
 
     this.initDeferredBuffers();
+
+    // From now on all the transfer responses are collected by the pipeline.
+    if (this.pipeline != null) {
+      this.pipeline.stop();
+    }
+    this.pipeline = new PacketPipeline(this.connectionInterface);
+    this.pipeline.start(this.uniqueId);
   }
 
   public void close() throws TimeoutException, Error {
-    if (Jocd.connectionInterface == null) {
+    if (this.connectionInterface == null || this.protocol == null) {
       return;
     }
 
-    flush();
-    Jocd.connectionInterface.close();
+    try {
+      flush();
+    } finally {
+      if (this.pipeline != null) {
+        this.pipeline.stop();
+      }
+      this.connectionInterface.close();
+    }
   }
 
   private String getUniqueId(ConnectionInterface device) {
@@ -200,7 +254,7 @@ public class DapAccessCmsisDap {
     // Send current packet
     this.sendPacket();
     // Read all backlogged
-    for (int i = 0; i < this.commandsToRead.size(); i++) {
+    while (!this.commandsToRead.isEmpty()) {
       this.readPacket();
     }
   }
@@ -213,13 +267,31 @@ public class DapAccessCmsisDap {
   }
 
   public void connect(Port port) throws TimeoutException, Error {
+    this.flush();
     this.dapPort = this.protocol.connect(port);
 
     // Set clock frequency.
     this.protocol.setSWJClock(this.frequency);
 
     // Configure transfer.
-    this.protocol.transferConfigure();
+    this.protocol.transferConfigure((byte) 0, CmsisDapProtocol.DEFAULT_WAIT_RETRY,
+        this.matchRetry);
+    this.matchMask = -1;
+  }
+
+  /*
+   * Set how many times the probe repeats a value match read before reporting a mismatch.
+   */
+  public void setMatchRetry(int matchRetry) throws TimeoutException, Error {
+    this.matchRetry = matchRetry;
+    if (this.dapPort != Port.DEFAULT) {
+      this.flush();
+      this.protocol.transferConfigure((byte) 0, CmsisDapProtocol.DEFAULT_WAIT_RETRY, matchRetry);
+    }
+  }
+
+  public int getMatchRetry() {
+    return this.matchRetry;
   }
 
   public void disconnect() throws TimeoutException, Error {
@@ -228,6 +300,7 @@ public class DapAccessCmsisDap {
   }
 
   public void swjSequence() throws TimeoutException, Error {
+    this.flush();
     if (this.dapPort == Port.SWD) {
       // Configure swd protocol.
       this.protocol.swdConfigure();
@@ -261,9 +334,8 @@ public class DapAccessCmsisDap {
       request |= AP_ACC;
     }
     request |= (regId % 4) * 4;
-    long[] transferData = new long[1];
-    transferData[0] = value;
-    this.write(dapIndex, 1, request, transferData);
+    this.singleWord[0] = (int) value;
+    this.write(dapIndex, 1, request, this.singleWord, 0);
   }
 
   public long readRegNow(long regId) throws TimeoutException, Error {
@@ -294,7 +366,7 @@ public class DapAccessCmsisDap {
       request |= AP_ACC;
     }
     request |= (regId % 4) << 2;
-    Transfer transfer = this.write(dapIndex, 1, request, null);
+    Transfer transfer = this.write(dapIndex, 1, request, (int[]) null, 0);
 
     // Assert transfer != null.
     if (transfer == null) {
@@ -304,14 +376,52 @@ public class DapAccessCmsisDap {
     return transfer;
   }
 
-  public long readRegAsync(Transfer transfer) throws TimeoutException, Error {
-    long[] res = transfer.getResult();
+  /*
+   * Queue a read of regId that the probe repeats until (value & mask) == expected.
+   * No data is returned: if there is no match within the match retries, the flush that
+   * sends it throws a TransferMismatchError and the transfers queued after it are dropped.
+   */
+  public void regReadMatch(long regId, long expected, long mask, byte dapIndex)
+      throws TimeoutException, Error {
+    // Assert Reg.containsReg(regId).
+    if (!Reg.containsReg(regId)) {
+      throw new Error("regReadMatch: !Reg.containsReg(regId)");
+    }
+
+    byte request = READ | VALUE_MATCH;
+    if (regId < 4) {
+      request |= DP_ACC;
+    } else {
+      request |= AP_ACC;
+    }
+    request |= (regId % 4) << 2;
+
+    // Queue the mask and the read together, so they go in the same packet.
+    boolean deferred = this.deferredTransfer;
+    this.deferredTransfer = true;
+    try {
+      if ((mask & 0xFFFFFFFFL) != this.matchMask) {
+        this.singleWord[0] = (int) mask;
+        this.write(dapIndex, 1, (byte) (WRITE | MATCH_MASK), this.singleWord, 0);
+        this.matchMask = mask & 0xFFFFFFFFL;
+      }
+      this.singleWord[0] = (int) expected;
+      this.write(dapIndex, 1, request, this.singleWord, 0);
+    } finally {
+      this.deferredTransfer = deferred;
+    }
+
+    if (!this.deferredTransfer) {
+      this.flush();
+    }
+  }
 
-    // Assert res.length == 1.
-    if (res.length != 1) {
+  public long readRegAsync(Transfer transfer) throws TimeoutException, Error {
+    // Assert transfer.getDataSize() == 4.
+    if (transfer.getDataSize() != 4) {
       throw new Error("readRegAsync: res.length != 1");
     }
-    return res[0];
+    return transfer.getResultWord() & 0xFFFFFFFFL;
   }
 
   public void regWriteRepeat(int numRepeats, long regId, long[] dataArray, Byte dapIndex)
@@ -338,7 +448,37 @@ public class DapAccessCmsisDap {
     }
 
     request |= (regId % 4) * 4;
-    this.write(dapIndex, numRepeats, request, dataArray);
+    this.write(dapIndex, numRepeats, request, dataArray, 0);
+  }
+
+  /*
+   * Write numRepeats words from dataArray, starting at offset, to the same register.
+   */
+  public void regWriteRepeat(int numRepeats, long regId, int[] dataArray, int offset,
+      Byte dapIndex) throws Error, TimeoutException {
+    // Assert offset + numRepeats <= dataArray.length.
+    if (offset < 0 || offset + numRepeats > dataArray.length) {
+      throw new Error("regWriteRepeat: offset + numRepeats > dataArray.length");
+    }
+
+    // Assert Reg.containsReg(regId).
+    if (!Reg.containsReg(regId)) {
+      throw new Error("regWriteRepeat: !Reg.containsReg(regId)");
+    }
+
+    if (dapIndex == null) {
+      dapIndex = 0;
+    }
+
+    byte request = WRITE;
+    if (regId < 4) {
+      request |= DP_ACC;
+    } else {
+      request |= AP_ACC;
+    }
+
+    request |= (regId % 4) * 4;
+    this.write(dapIndex, numRepeats, request, dataArray, offset);
   }
 
   public long[] regReadRepeat(int numRepeats, long regId, Byte dapIndex)
@@ -370,7 +510,53 @@ public class DapAccessCmsisDap {
       request |= AP_ACC;
     }
     request |= (regId % 4) * 4;
-    Transfer transfer = this.write(dapIndex, numRepeats, request, null);
+    Transfer transfer = this.write(dapIndex, numRepeats, request, (int[]) null, 0);
+
+    // Assert transfer != null.
+    if (transfer == null) {
+      throw new Error("regReadRepeatLater: transfer == null");
+    }
+
+    return transfer;
+  }
+
+  /*
+   * Read numRepeats words from the same register into dst, starting at offset.
+   */
+  public void regReadRepeat(int numRepeats, long regId, int[] dst, int offset, Byte dapIndex)
+      throws TimeoutException, Error {
+    Transfer transfer = this.regReadRepeatLater(numRepeats, regId, dst, offset, dapIndex);
+    transfer.getResultWords();
+  }
+
+  /*
+   * Start reading numRepeats words from the same register. The words are stored
+   * in dst, starting at offset, when the transfer completes.
+   */
+  public Transfer regReadRepeatLater(int numRepeats, long regId, int[] dst, int offset,
+      Byte dapIndex) throws Error, TimeoutException {
+    // Assert offset + numRepeats <= dst.length.
+    if (offset < 0 || offset + numRepeats > dst.length) {
+      throw new Error("regReadRepeatLater: offset + numRepeats > dst.length");
+    }
+
+    // Assert Reg.containsReg(regId).
+    if (!Reg.containsReg(regId)) {
+      throw new Error("regReadRepeatLater: !Reg.containsReg(regId)");
+    }
+
+    if (dapIndex == null) {
+      dapIndex = 0;
+    }
+
+    byte request = READ;
+    if (regId < 4) {
+      request |= DP_ACC;
+    } else {
+      request |= AP_ACC;
+    }
+    request |= (regId % 4) * 4;
+    Transfer transfer = this.write(dapIndex, numRepeats, request, null, null, 0, dst, offset);
 
     // Assert transfer != null.
     if (transfer == null) {
@@ -451,6 +637,65 @@ public class DapAccessCmsisDap {
     this.deferredTransfer = enabled;
   }
 
+  /*
+   * Open a batch scope. See Batch.
+   */
+  public Batch batch() {
+    return new Batch(this);
+  }
+
+  /*
+   * Return true if a batch is open on this link.
+   */
+  public boolean inBatch() {
+    return this.batchDepth > 0;
+  }
+
+  /*
+   * Run a check after the outermost batch is flushed, or right now if no batch is open.
+   */
+  public void addBatchCheck(Batch.Check check) throws TimeoutException, Error {
+    if (this.inBatch()) {
+      this.batchChecks.add(check);
+    } else {
+      check.verify();
+    }
+  }
+
+  void beginBatch() {
+    if (this.batchDepth == 0) {
+      this.batchSavedDeferredTransfer = this.deferredTransfer;
+      this.batchChecks.clear();
+      this.deferredTransfer = true;
+    }
+    this.batchDepth++;
+  }
+
+  /*
+   * Leave a batch scope. Return true if it was the outermost one.
+   * Pending transfers are left for the caller to flush.
+   */
+  boolean endBatch() throws Error {
+    // Assert this.batchDepth > 0.
+    if (this.batchDepth <= 0) {
+      throw new Error("endBatch: batchDepth <= 0");
+    }
+    this.batchDepth--;
+    if (this.batchDepth > 0) {
+      return false;
+    }
+    this.deferredTransfer = this.batchSavedDeferredTransfer;
+    return true;
+  }
+
+  void runBatchChecks() throws TimeoutException, Error {
+    List<Batch.Check> checks = new ArrayList<Batch.Check>(this.batchChecks);
+    this.batchChecks.clear();
+    for (Batch.Check check : checks) {
+      check.verify();
+    }
+  }
+
   /*
    * Initialize or reinitialize all the deferred transfer buffers
    * Calling this method will drop all pending transactions so use with care.
@@ -459,12 +704,19 @@ public class DapAccessCmsisDap {
     // List of transfers that have been started, but not completed
     // (started by write_reg, read_reg, reg_write_repeat and reg_read_repeat)
     this.transferList = new LinkedList<Transfer>();
+    // Commands (and their packet buffers) that can be reused
+    this.freeCommands = new ArrayDeque<Command>();
     // The current packet - this can contain multiple  different transfers
-    this.crntCmd = new Command(this.packetSize);
+    this.crntCmd = this.newCommand();
     // Packets that have been sent but not read
     this.commandsToRead = new ArrayDeque<Command>();
-    // Buffer for data returned for completed commands. This data will be added to transfers
-    this.commandsResponseBuf = new byte[0];
+    // Buffer for data returned for completed commands. This data will be added to transfers.
+    // It is reused for all the packets, as every response is consumed right away.
+    if (this.commandsResponseBuf == null || this.commandsResponseBuf.capacity() < this.packetSize) {
+      this.commandsResponseBuf = ByteBuffer.allocate(this.packetSize)
+          .order(ByteOrder.LITTLE_ENDIAN);
+    }
+    this.commandsResponseBuf.clear();
   }
 
   /*
@@ -474,48 +726,41 @@ public class DapAccessCmsisDap {
   public void readPacket() throws TimeoutException, Error {
     // Grab command, send it and decode response
     Command command = (Command) this.commandsToRead.poll();
-    byte[] decodedData;
     try {
-      byte[] rawData = Jocd.connectionInterface.read();
-      decodedData = command.decodeData(rawData);
+      byte[] rawData = this.pipeline.read();
+      command.decodeData(rawData, this.commandsResponseBuf);
     } catch (Error exception) {
       this.abortAllTransfers(exception);
       throw exception;
     }
 
-    this.commandsResponseBuf = Util.appendDataInArray(this.commandsResponseBuf, decodedData);
+    // The response was decoded, so this command can be reused.
+    command.reset();
+    this.freeCommands.add(command);
 
     // Attach data to transfers
-    int pos = 0;
-    while (true) {
-      int sizeLeft = this.commandsResponseBuf.length - pos;
-      if (sizeLeft == 0) {
-        // If size left is 0 then the transfer list might be empty, so don't try to access element 0
-        break;
+    this.commandsResponseBuf.flip();
+    while (this.commandsResponseBuf.remaining() >= 4) {
+      Transfer transfer = this.transferList.peek();
+      if (transfer == null) {
+        this.commandsResponseBuf.clear();
+        throw new Error("readPacket: response data without a pending transfer");
       }
-      Transfer transfer = this.transferList.get(0);
-      int size = transfer.getDataSize();
-      if (size > sizeLeft) {
-        break;
+      if (transfer.addResponse(this.commandsResponseBuf)) {
+        this.transferList.poll();
       }
-
-      this.transferList.poll();
-      byte[] data = Util.getSubArray(this.commandsResponseBuf, pos, pos + size);
-      pos += size;
-      transfer.addResponse(data);
     }
 
-    // Remove used data from commandResponseBuf
-    if (pos > 0) {
-      this.commandsResponseBuf = Util.getSubArray(this.commandsResponseBuf, pos, null);
-    }
+    // Keep any unused data for the next packet.
+    this.commandsResponseBuf.compact();
   }
 
   /*
    * Send a single packet to the interface
    * This function guarantees that the number of packets that are stored in daplink's buffer
    * (the number of packets written but not read) does not exceed the number supported by
-   * the given device.
+   * the given device. Responses already collected by the pipeline are decoded here, so
+   * transfers complete as soon as possible.
    */
   private void sendPacket() throws TimeoutException, Error {
     Command command = this.crntCmd;
@@ -523,42 +768,74 @@ public class DapAccessCmsisDap {
       return;
     }
 
-    int maxPackets = Jocd.connectionInterface.getPacketCount();
-    if (this.commandsToRead.size() >= maxPackets) {
+    while (!this.commandsToRead.isEmpty() && this.pipeline.hasResponse()) {
       this.readPacket();
     }
+
+    int maxPackets = this.connectionInterface.getPacketCount();
     byte[] data = command.encodeData();
     try {
-      Jocd.connectionInterface.write(data);
+      this.pipeline.write(data, maxPackets);
     } catch (Error exception) {
       this.abortAllTransfers(exception);
       throw exception;
     }
 
     this.commandsToRead.add(command);
-    this.crntCmd = new Command(this.packetSize);
+    this.crntCmd = this.newCommand();
+  }
+
+  /*
+   * Get a command from the pool, or create a new one if the pool is empty.
+   */
+  private Command newCommand() {
+    Command command = this.freeCommands.poll();
+    if (command == null) {
+      command = new Command(this.packetSize);
+    }
+    return command;
   }
 
   /*
    * Write one or more commands
    */
   private Transfer write(byte dapIndex, int transferCount, byte transferRequest,
-      long[] transferData)
+      long[] transferData, int dataOffset) throws TimeoutException, Error {
+    return this.write(dapIndex, transferCount, transferRequest, null, transferData, dataOffset,
+        null, 0);
+  }
+
+  private Transfer write(byte dapIndex, int transferCount, byte transferRequest,
+      int[] transferData, int dataOffset) throws TimeoutException, Error {
+    return this.write(dapIndex, transferCount, transferRequest, transferData, null, dataOffset,
+        null, 0);
+  }
+
+  /*
+   * Write one or more commands. The words to write are taken either from
+   * transferData or longTransferData. Words read are stored in dst if not null.
+   */
+  private Transfer write(byte dapIndex, int transferCount, byte transferRequest,
+      int[] transferData, long[] longTransferData, int dataOffset, int[] dst, int dstOffset)
       throws TimeoutException, Error {
     // Assert dapIndex == 0.
     if (dapIndex != 0) {
       throw new Error("write: dapIndex != 0");
     }
 
-    // Assert transferData == null || transferData.length != 0.
-    if (!(transferData == null || transferData.length != 0)) {
-      throw new Error("write: !(transferData == null || transferData.length != 0)");
+    // Assert transferCount != 0.
+    if (transferCount == 0) {
+      throw new Error("write: transferCount == 0");
     }
 
     // Create transfer and add to transfer list
     Transfer transfer = null;
-    if ((transferRequest & READ) != 0) {
-      transfer = new Transfer(this, dapIndex, transferCount, transferRequest, transferData);
+    if ((transferRequest & READ) != 0 && (transferRequest & VALUE_MATCH) == 0) {
+      if (dst == null) {
+        transfer = new Transfer(this, dapIndex, transferCount, transferRequest, (long[]) null);
+      } else {
+        transfer = new Transfer(this, dapIndex, transferCount, transferRequest, dst, dstOffset);
+      }
       this.transferList.add(transfer);
     }
 
@@ -566,7 +843,7 @@ public class DapAccessCmsisDap {
     Command cmd = this.crntCmd;
     boolean isRead = (transferRequest & READ) != 0;
     int sizeToTransfer = transferCount;
-    int transDataPos = 0;
+    int transDataPos = dataOffset;
     while (sizeToTransfer > 0) {
       // Get the size remaining in the current packet for the given request.
       int size = cmd.getRequestSpace(sizeToTransfer, transferRequest, dapIndex);
@@ -579,14 +856,12 @@ public class DapAccessCmsisDap {
         continue;
       }
 
-      long[] words;
       // Add request to packet.
-      if (transferData == null) {
-        words = null;
+      if (longTransferData != null) {
+        cmd.add(size, transferRequest, longTransferData, transDataPos, dapIndex);
       } else {
-        words = Util.getSubArray(transferData, transDataPos, transDataPos + size);
+        cmd.add(size, transferRequest, transferData, transDataPos, dapIndex);
       }
-      cmd.add(size, transferRequest, words, dapIndex);
       sizeToTransfer -= size;
       transDataPos += size;
 
@@ -610,6 +885,8 @@ public class DapAccessCmsisDap {
    */
   private void abortAllTransfers(Error exception) throws Error {
     int pendingReads = this.commandsToRead.size();
+    // The match mask write may not have reached the probe.
+    this.matchMask = -1;
     // Invalidate transferList
     for (Transfer transfer : this.transferList) {
       transfer.addError(exception);
@@ -623,7 +900,7 @@ public class DapAccessCmsisDap {
     if (exception instanceof TransferError) {
       for (int i = 0; i < pendingReads; i++) {
         try {
-          Jocd.connectionInterface.read();
+          this.pipeline.read();
         } catch (TimeoutException e) {
           // Couldn't read. Keep on loop to clean the "pendingReads".
         }
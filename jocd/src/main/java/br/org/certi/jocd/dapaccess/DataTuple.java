@@ -22,12 +22,25 @@ public class DataTuple {
 
   private int count;
   private byte request;
-  private long[] words;
+  private int[] words;
+  private int offset;
 
-  public DataTuple(int count, byte request, long[] words) {
+  public DataTuple(int count, byte request, int[] words) {
+    this(count, request, words, 0);
+  }
+
+  public DataTuple(int count, byte request, int[] words, int offset) {
+    this.set(count, request, words, offset);
+  }
+
+  /*
+   * Reuse this tuple for another request.
+   */
+  public void set(int count, byte request, int[] words, int offset) {
     this.count = count;
     this.request = request;
     this.words = words;
+    this.offset = offset;
   }
 
   public int getCount() {
@@ -38,7 +51,14 @@ public class DataTuple {
     return request;
   }
 
-  public long[] getData() {
+  public int[] getData() {
     return words;
   }
+
+  /*
+   * Index of the first word of this request in getData().
+   */
+  public int getOffset() {
+    return offset;
+  }
 }
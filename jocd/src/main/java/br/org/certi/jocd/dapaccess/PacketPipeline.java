@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.dapaccess;
+
+import br.org.certi.jocd.dapaccess.connectioninterface.ConnectionInterface;
+import br.org.certi.jocd.dapaccess.dapexceptions.Error;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Asynchronous packet engine for a CMSIS-DAP link.
+ * Packets are written by the caller, while a dedicated reader thread
+ * collects the responses as soon as the probe sends them. This keeps up to
+ * packetCount commands queued in the probe, instead of waiting a full USB
+ * round trip for each packet.
+ */
+public class PacketPipeline {
+
+  // Logging
+  private final static String CLASS_NAME = PacketPipeline.class.getName();
+  private final static Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  // Maximum time (ms) to wait for a response collected by the reader thread.
+  public static final int READ_TIMEOUT = 1000;
+
+  private final ConnectionInterface connectionInterface;
+
+  // Responses (byte[]) or errors (TimeoutException) in the order they were read.
+  private final LinkedBlockingQueue<Object> responses = new LinkedBlockingQueue<Object>();
+
+  // One permit for each packet written whose response wasn't read yet.
+  private final Semaphore pendingReads = new Semaphore(0);
+
+  // Number of packets held by the probe (written, but response not read).
+  private final Object inFlightLock = new Object();
+  private int inFlight = 0;
+
+  private volatile boolean running = false;
+  private Thread readerThread;
+
+  /*
+   * Constructor.
+   */
+  public PacketPipeline(ConnectionInterface connectionInterface) {
+    this.connectionInterface = connectionInterface;
+  }
+
+  /*
+   * Start the reader thread.
+   */
+  public void start(String name) {
+    if (this.running) {
+      return;
+    }
+
+    this.running = true;
+    this.readerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readerLoop();
+      }
+    }, "jocd-dap-reader-" + name);
+    this.readerThread.setDaemon(true);
+    this.readerThread.start();
+  }
+
+  /*
+   * Stop the reader thread and drop any pending response.
+   */
+  public void stop() {
+    if (!this.running) {
+      return;
+    }
+
+    this.running = false;
+    this.readerThread.interrupt();
+    try {
+      this.readerThread.join(READ_TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.readerThread = null;
+    this.responses.clear();
+    this.pendingReads.drainPermits();
+    synchronized (this.inFlightLock) {
+      this.inFlight = 0;
+    }
+  }
+
+  /*
+   * Write a packet. If the probe has already maxPackets packets in its
+   * buffers, wait until the reader thread gets one of the responses.
+   */
+  public void write(byte[] data, int maxPackets) throws TimeoutException, Error {
+    synchronized (this.inFlightLock) {
+      long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+      while (this.inFlight >= maxPackets) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0 || !this.running) {
+          throw new TimeoutException();
+        }
+        try {
+          this.inFlightLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new TimeoutException();
+        }
+      }
+      this.inFlight++;
+    }
+
+    try {
+      this.connectionInterface.write(data);
+    } catch (Error error) {
+      synchronized (this.inFlightLock) {
+        this.inFlight--;
+        this.inFlightLock.notifyAll();
+      }
+      throw error;
+    }
+    this.pendingReads.release();
+  }
+
+  /*
+   * Return the next response, waiting for it if needed.
+   */
+  public byte[] read() throws TimeoutException {
+    Object response;
+    try {
+      response = this.responses.poll(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TimeoutException();
+    }
+
+    if (response == null) {
+      LOGGER.log(Level.SEVERE, "Read timed out.");
+      throw new TimeoutException();
+    }
+    if (response instanceof TimeoutException) {
+      throw (TimeoutException) response;
+    }
+    return (byte[]) response;
+  }
+
+  /*
+   * Check if there is a response ready to be consumed without blocking.
+   */
+  public boolean hasResponse() {
+    return !this.responses.isEmpty();
+  }
+
+  private void readerLoop() {
+    while (this.running) {
+      try {
+        this.pendingReads.acquire();
+      } catch (InterruptedException e) {
+        // Stopped.
+        break;
+      }
+
+      Object response;
+      try {
+        response = this.connectionInterface.read();
+        if (response == null) {
+          response = new TimeoutException();
+        }
+      } catch (TimeoutException e) {
+        response = e;
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Unexpected exception while reading a packet", e);
+        response = new TimeoutException(e.toString());
+      }
+
+      synchronized (this.inFlightLock) {
+        this.inFlight--;
+        this.inFlightLock.notifyAll();
+      }
+      this.responses.add(response);
+    }
+  }
+}
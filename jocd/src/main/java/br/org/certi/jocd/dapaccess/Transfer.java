@@ -16,7 +16,8 @@
 package br.org.certi.jocd.dapaccess;
 
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
-import br.org.certi.jocd.util.Conversion;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.concurrent.TimeoutException;
 
 /*
@@ -28,6 +29,10 @@ public class Transfer {
   private Error error;
   private int sizeBytes = 0;
   private long[] result;
+  // Words received. They might be stored straight into the caller's array.
+  private int[] words;
+  private int wordsOffset;
+  private int resultCount = 0;
   private DapAccessCmsisDap dapLink;
   private byte dapIndex;
   private int transferCount;
@@ -39,6 +44,15 @@ public class Transfer {
    */
   public Transfer(DapAccessCmsisDap dapLink, byte dapIndex, int transferCount,
       byte transferRequest, long[] transferData) throws Error {
+    this(dapLink, dapIndex, transferCount, transferRequest, new int[transferCount], 0);
+    this.transferData = transferData;
+  }
+
+  /*
+   * Constructor for a transfer that stores the words read in dst, starting at dstOffset.
+   */
+  public Transfer(DapAccessCmsisDap dapLink, byte dapIndex, int transferCount,
+      byte transferRequest, int[] dst, int dstOffset) throws Error {
     // Writes should not need a transfer object since they don't have any response data
     // Assert (transferRequest & DapAccessCmsisDap.READ) != 0.
     if ((transferRequest & DapAccessCmsisDap.READ) == 0) {
@@ -49,10 +63,11 @@ public class Transfer {
     this.dapIndex = dapIndex;
     this.transferCount = transferCount;
     this.transferRequest = transferRequest;
-    this.transferData = transferData;
     if ((transferRequest & DapAccessCmsisDap.READ) != 0) {
       this.sizeBytes = transferCount * 4;
     }
+    this.words = dst;
+    this.wordsOffset = dstOffset;
   }
 
   /*
@@ -72,8 +87,28 @@ public class Transfer {
       throw new Error("addResponse: data.length != this.sizeBytes");
     }
 
-    long[] result = Conversion.byteListToU32leList(data);
-    this.result = result;
+    ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    this.addResponse(buffer);
+  }
+
+  /*
+   * Add the words available in buffer (little endian) to this object.
+   * The response of a transfer might be split in more than one packet, so
+   * this can be called several times. Return true when the transfer is complete.
+   */
+  public boolean addResponse(ByteBuffer buffer) {
+    int count = Math.min(this.transferCount - this.resultCount, buffer.remaining() / 4);
+    for (int i = 0; i < count; i++) {
+      this.words[this.wordsOffset + this.resultCount++] = buffer.getInt();
+    }
+    return this.isComplete();
+  }
+
+  /*
+   * Return true if all the data of this transfer was received.
+   */
+  public boolean isComplete() {
+    return this.resultCount == this.transferCount;
   }
 
   /*
@@ -92,7 +127,40 @@ public class Transfer {
    * Get the result of this transfer.
    */
   public long[] getResult() throws TimeoutException, Error {
-    while (this.result == null) {
+    this.waitForResult();
+
+    if (this.result == null) {
+      this.result = new long[this.transferCount];
+      for (int i = 0; i < this.transferCount; i++) {
+        this.result[i] = this.words[this.wordsOffset + i] & 0xFFFFFFFFL;
+      }
+    }
+    return this.result;
+  }
+
+  /*
+   * Wait for the result of this transfer, leaving the words read
+   * in the array given to the constructor.
+   */
+  public void getResultWords() throws TimeoutException, Error {
+    this.waitForResult();
+  }
+
+  /*
+   * Get the first word of the result of this transfer.
+   */
+  public int getResultWord() throws TimeoutException, Error {
+    this.waitForResult();
+
+    // Assert this.transferCount > 0.
+    if (this.transferCount == 0) {
+      throw new Error("getResultWord: transferCount == 0");
+    }
+    return this.words[this.wordsOffset];
+  }
+
+  private void waitForResult() throws TimeoutException, Error {
+    while (!this.isComplete() && this.error == null) {
       if (this.dapLink.getCommandsToRead().size() > 0) {
         this.dapLink.readPacket();
       } else {
@@ -110,11 +178,9 @@ public class Transfer {
       throw this.error;
     }
 
-    // Assert this.result != null.
-    if (this.result == null) {
-      throw new Error("getResult: result == null");
+    // Assert this.isComplete().
+    if (!this.isComplete()) {
+      throw new Error("getResult: result not complete");
     }
-
-    return this.result;
   }
 }
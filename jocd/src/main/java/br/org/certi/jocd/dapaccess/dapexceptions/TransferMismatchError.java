@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.dapaccess.dapexceptions;
+
+/*
+ * A value match read didn't match within the probe's match retries.
+ * All transfers before it completed normally.
+ */
+public class TransferMismatchError extends TransferError {
+
+  public TransferMismatchError() {
+    this("No value match within the configured match retries");
+  }
+
+  public TransferMismatchError(String message) {
+    super(message);
+  }
+
+}
@@ -100,6 +100,16 @@ public class BreakpointManager {
     return data;
   }
 
+  public void filterMemoryUnaligned8(long address, byte[] data, int offset, int length) {
+    for (BreakpointProvider provider : this.providers) {
+      if (provider != null && provider.doFilterMemory()) {
+        for (int i = 0; i < length; i++) {
+          data[offset + i] = provider.filterMemory(address + i, data[offset + i]);
+        }
+      }
+    }
+  }
+
   public long[] filterMemoryAligned32(long address, int size, long[] words) {
     for (BreakpointProvider provider : this.providers) {
       if (provider != null && provider.doFilterMemory()) {
@@ -111,6 +121,17 @@ public class BreakpointManager {
     return words;
   }
 
+  public void filterMemoryAligned32(long address, int[] words, int offset, int length) {
+    for (BreakpointProvider provider : this.providers) {
+      if (provider != null && provider.doFilterMemory()) {
+        for (int i = 0; i < length; i++) {
+          words[offset + i] = (int) provider
+              .filterMemory(address + 4 * i, 32, words[offset + i] & 0xFFFFFFFFL);
+        }
+      }
+    }
+  }
+
   public void removeAllBreakpoints() {
     for (Breakpoint bp : breakpoints) {
       bp.provider.removeBreakpoint(bp);
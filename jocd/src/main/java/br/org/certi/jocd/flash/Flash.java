@@ -21,9 +21,10 @@ import br.org.certi.jocd.core.Target.CoreRegister;
 import br.org.certi.jocd.core.Target.State;
 import br.org.certi.jocd.coresight.CortexM;
 import br.org.certi.jocd.coresight.CortexM.CortexMRegister;
+import br.org.certi.jocd.dapaccess.Batch;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.tools.ProgressUpdateInterface;
-import br.org.certi.jocd.util.Util;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
@@ -54,6 +55,18 @@ public class Flash {
       0x0A12595BL, 0x42B1405AL, 0x43D2D1F5L, 0x4560C004L, 0x2000D1E7L, 0x2200BDF0L, 0x46C0E7F8L,
       0x000000B6L, 0xEDB88320L, 0x00000044L};
 
+  // Completion polling. The first polls are sent back to back, as each one already takes a USB
+  // round trip, then the interval doubles up to MAX_POLL_INTERVAL_MS.
+  static final int BUSY_POLLS = 4;
+  static final int MAX_POLL_INTERVAL_MS = 8;
+
+  // The timeout of a function is its expected time (from the page/flash weights) times this
+  // factor, but never less than MIN_TIMEOUT_MS. DEFAULT_TIMEOUT_MS is used when the expected time
+  // is unknown.
+  static final double TIMEOUT_FACTOR = 10.0;
+  static final long MIN_TIMEOUT_MS = 200;
+  static final long DEFAULT_TIMEOUT_MS = 5000;
+
   FlashAlgo flashAlgo;
   Target target;
 
@@ -68,6 +81,14 @@ public class Flash {
 
   Boolean doubleBufferSupported;
 
+  // The flash algorithm and the analyzer stay in RAM while the core runs nothing else: they are
+  // resident if the core resume count is still the one of the last call to the algorithm.
+  boolean algoResident = false;
+  int algoResumeCount;
+
+  // Page CRCs from the last programming of this board, if enabled.
+  FlashCache cache = null;
+
   /*
    * Constructor.
    */
@@ -105,19 +126,67 @@ public class Flash {
   }
 
   /*
-   * Download the flash algorithm in RAM.
+   * Download the flash algorithm in RAM, unless it is still there, and run its init function.
    */
   public void init() throws InterruptedException, TimeoutException, Error {
     this.target.halt();
     this.target.setTargetState(State.PROGRAM);
 
+    // The reset keeps RAM, but something else may have written it: check before trusting it.
+    if (this.isAlgoResident() && !this.checkAlgoInRam()) {
+      this.algoResident = false;
+    }
+
     // Update core register to execute the init subroutine.
     long result = this.callFunctionAndWait(this.flashAlgo.pcInit, null, null, null, null, true);
 
     // Check the return code.
     if (result != 0) {
       LOGGER.log(Level.SEVERE, "Init error: " + result);
+      this.algoResident = false;
+    }
+  }
+
+  /*
+   * Return true if the flash algorithm is known to be in RAM, so init doesn't need to download
+   * it again. The reset done by init stops the core before it runs anything, so it keeps it,
+   * though init still checks the RAM before skipping the download.
+   */
+  public boolean isAlgoResident() throws Error {
+    Target core = this.target.getSelectedCore();
+    return this.algoResident && (core instanceof CortexM)
+        && ((CortexM) core).getResumeCount() == this.algoResumeCount;
+  }
+
+  /*
+   * Check the first and last words of the flash algorithm and of the analyzer in RAM. They are
+   * read in a single round trip.
+   */
+  private boolean checkAlgoInRam() throws TimeoutException, Error {
+    long[] instructions = this.flashAlgo.instructions;
+    int count = this.flashAlgo.analyzerSupported ? 4 : 2;
+    long[] addresses = new long[count];
+    long[] expected = new long[count];
+    addresses[0] = this.flashAlgo.loadAddress;
+    expected[0] = instructions[0];
+    addresses[1] = this.flashAlgo.loadAddress + (instructions.length - 1) * 4;
+    expected[1] = instructions[instructions.length - 1];
+    if (this.flashAlgo.analyzerSupported) {
+      addresses[2] = this.flashAlgo.analyzerAddress;
+      expected[2] = this.analyzer[0];
+      addresses[3] = this.flashAlgo.analyzerAddress + (this.analyzer.length - 1) * 4;
+      expected[3] = this.analyzer[this.analyzer.length - 1];
     }
+
+    long[] words = this.target.readMemoryGather(addresses, null);
+    for (int i = 0; i < count; i++) {
+      if (words[i] != expected[i]) {
+        LOGGER.log(Level.FINE, String.format(
+            "Flash algorithm changed at 0x%08x, downloading it again", addresses[i]));
+        return false;
+      }
+    }
+    return true;
   }
 
   public long[] computeCrcs(List<Sectors> sectors)
@@ -162,12 +231,28 @@ public class Flash {
     return words;
   }
 
+  public FlashCache getCache() {
+    return this.cache;
+  }
+
+  /*
+   * Use a cache of the page CRCs to speed up the analysis when reprogramming this board.
+   */
+  public void setCache(FlashCache cache) {
+    this.cache = cache;
+  }
+
   /*
    * Erase all the flash.
    */
   public void eraseAll() throws InterruptedException, TimeoutException, Error {
+    if (this.cache != null) {
+      this.cache.clear();
+    }
+
     // Update core register to execute the eraseAll subroutine.
-    long result = this.callFunctionAndWait(this.flashAlgo.pcEraseAll, null, null, null, null, null);
+    long result = this.callFunctionAndWait(this.flashAlgo.pcEraseAll, null, null, null, null, null,
+        this.getFlashInfo().eraseWeight);
 
     // Check the return code.
     if (result != 0) {
@@ -176,18 +261,31 @@ public class Flash {
   }
 
   /*
-   * Erase one page.
+   * Erase one page. Return the result code of the flash algorithm, 0 on success.
    */
-  public void erasePage(long flashPtr) throws InterruptedException, TimeoutException, Error {
-    // Update core register to execute the erasePage subroutine.
-    long result = this
-        .callFunctionAndWait(this.flashAlgo.pcEraseSector, flashPtr, null, null, null, null);
+  public long erasePage(long flashPtr) throws InterruptedException, TimeoutException, Error {
+    this.startErasePage(flashPtr);
+    PageInfo pageInfo = this.getPageInfo(flashPtr);
+    long result = this.waitForCompletion(pageInfo == null ? 0 : pageInfo.eraseWeight);
 
     // Check the return code
     if (result != 0) {
       LOGGER
           .log(Level.SEVERE, "erasePage(" + String.format("%08X", flashPtr) + ") error: " + result);
     }
+    return result;
+  }
+
+  /*
+   * Start erasing one page. Use waitForCompletion to wait for the result.
+   */
+  public void startErasePage(long flashPtr) throws TimeoutException, Error {
+    if (this.cache != null) {
+      this.cache.removeCrc(flashPtr);
+    }
+
+    // Update core register to execute the erasePage subroutine.
+    this.callFunction(this.flashAlgo.pcEraseSector, flashPtr, null, null, null, null);
   }
 
   public boolean isDoubleBufferingSupported() {
@@ -195,9 +293,16 @@ public class Flash {
   }
 
   /*
-   * Flash one page.
+   * Return the number of page buffers in RAM provided by the flash algorithm.
+   */
+  public int getPageBufferCount() {
+    return this.pageBuffers == null ? 0 : this.pageBuffers.size();
+  }
+
+  /*
+   * Flash one page. Return the result code of the flash algorithm, 0 on success.
    */
-  public void programPage(long flashPtr, byte[] data)
+  public long programPage(long flashPtr, byte[] data)
       throws InterruptedException, TimeoutException, Error {
     // Prevent security settings from locking the device.
     data = overrideSecurityBits(flashPtr, data);
@@ -211,12 +316,13 @@ public class Flash {
     // Update core register to execute the program_page subroutine.
     long result = this
         .callFunctionAndWait(this.flashAlgo.pcProgramPage, flashPtr, (long) data.length,
-            this.beginData, null, null);
+            this.beginData, null, null, pageInfo == null ? 0 : pageInfo.programWeight);
 
     // Check the return code.
     if (result != 0) {
-      LOGGER.log(Level.SEVERE, String.format("ProgramPage(0x%08x) error: %i", flashPtr, result));
+      LOGGER.log(Level.SEVERE, String.format("ProgramPage(0x%08x) error: %d", flashPtr, result));
     }
+    return result;
   }
 
   /*
@@ -295,6 +401,16 @@ public class Flash {
   public ProgrammingInfo flashBlock(long address, byte[] data, Boolean smartFlash,
       Boolean chipErase, ProgressUpdateInterface progressUpdate, Boolean fastVerify)
       throws TimeoutException, InterruptedException, Error {
+    return flashBlock(address, ByteBuffer.wrap(data), smartFlash, chipErase, progressUpdate,
+        fastVerify);
+  }
+
+  /*
+   * Flash a block of data, from the buffer's position to its limit.
+   */
+  public ProgrammingInfo flashBlock(long address, ByteBuffer data, Boolean smartFlash,
+      Boolean chipErase, ProgressUpdateInterface progressUpdate, Boolean fastVerify)
+      throws TimeoutException, InterruptedException, Error {
     long flashStart = this.getFlashInfo().romStart;
     FlashBuilder flashBuilder = new FlashBuilder(this, flashStart);
     flashBuilder.addData(address, data);
@@ -303,6 +419,7 @@ public class Flash {
     return programmingInfo;
   }
 
+  @SuppressWarnings("try")
   public void callFunction(long pc, Long r0, Long r1, Long r2, Long r3, Boolean init)
       throws TimeoutException, Error {
     // Use default value if null.
@@ -310,80 +427,111 @@ public class Flash {
       init = false;
     }
 
-    List<CoreRegister> regList = new ArrayList<CoreRegister>();
-    List<Long> dataList = new ArrayList<Long>();
+    CoreRegister[] regs = new CoreRegister[8];
+    long[] words = new long[8];
+    int count = 0;
+    boolean resident = this.isAlgoResident();
+
+    // Everything is sent together when the batch is closed: the algo download, the register
+    // writes and the resume.
+    try (Batch batch = this.target.batch()) {
+      if (this.flashAlgoDebug) {
+        // Save vector catch state for use in waitForCompletion().
+        this.savedVectorCatch = this.target.getVectorCatch();
+        this.target.setVectorCatch(Target.CATCH_ALL);
+      }
 
-    if (this.flashAlgoDebug) {
-      // Save vector catch state for use in waitForCompletion().
-      this.savedVectorCatch = this.target.getVectorCatch();
-      this.target.setVectorCatch(Target.CATCH_ALL);
-    }
+      if (init && !resident) {
+        // Download flash algo in RAM.
+        this.target
+            .writeBlockMemoryAligned32(this.flashAlgo.loadAddress, this.flashAlgo.instructions);
+        if (this.flashAlgo.analyzerSupported) {
+          this.target.writeBlockMemoryAligned32(this.flashAlgo.analyzerAddress, analyzer);
+        }
+      }
 
-    if (init) {
-      // Download flash algo in RAM.
-      this.target
-          .writeBlockMemoryAligned32(this.flashAlgo.loadAddress, this.flashAlgo.instructions);
-      if (this.flashAlgo.analyzerSupported) {
-        this.target.writeBlockMemoryAligned32(this.flashAlgo.analyzerAddress, analyzer);
+      // We want to write registers from Cortex-M.
+      // If our selected core isn't a Cortex-M, than something is wrong or it's not implemented
+      // yet.
+      if (!(this.target.getSelectedCore() instanceof CortexM)) {
+        throw new InternalError(
+            "callFunction: Unexpected core. " + this.target.getSelectedCore().toString());
       }
-    }
+      regs[count] = CortexMRegister.PC;
+      words[count++] = pc;
 
-    // We want to write registers from Cortex-M.
-    // If our selected core isn't a Cortex-M, than something is wrong or it's not implemented yet.
-    if (!(this.target.getSelectedCore() instanceof CortexM)) {
-      throw new InternalError(
-          "callFunction: Unexpected core. " + this.target.getSelectedCore().toString());
-    }
-    regList.add(CortexMRegister.PC);
-    dataList.add(pc);
+      if (r0 != null) {
+        regs[count] = CortexMRegister.R0;
+        words[count++] = r0;
+      }
 
-    if (r0 != null) {
-      regList.add(CortexMRegister.R0);
-      dataList.add(r0);
-    }
+      if (r1 != null) {
+        regs[count] = CortexMRegister.R1;
+        words[count++] = r1;
+      }
 
-    if (r1 != null) {
-      regList.add(CortexMRegister.R1);
-      dataList.add(r1);
-    }
+      if (r2 != null) {
+        regs[count] = CortexMRegister.R2;
+        words[count++] = r2;
+      }
 
-    if (r2 != null) {
-      regList.add(CortexMRegister.R2);
-      dataList.add(r2);
-    }
+      if (r3 != null) {
+        regs[count] = CortexMRegister.R3;
+        words[count++] = r3;
+      }
 
-    if (r3 != null) {
-      regList.add(CortexMRegister.R3);
-      dataList.add(r3);
-    }
+      if (init) {
+        regs[count] = CortexMRegister.R9;
+        words[count++] = this.staticBase;
+        regs[count] = CortexMRegister.SP;
+        words[count++] = this.beginStack;
+      }
 
-    if (init) {
-      regList.add(CortexMRegister.R9);
-      dataList.add(this.staticBase);
-      regList.add(CortexMRegister.SP);
-      dataList.add(this.beginStack);
-    }
+      regs[count] = CortexMRegister.LR;
+      words[count++] = this.flashAlgo.loadAddress + 1;
 
-    regList.add(CortexMRegister.LR);
-    dataList.add(this.flashAlgo.loadAddress + 1);
-    this.target.writeCoreRegisterRaw(regList, Util.getArrayFromList(dataList));
+      // Set the registers and resume the target.
+      CortexM core = (CortexM) this.target.getSelectedCore();
+      core.writeCoreRegistersAndRun(regs, words, count);
 
-    // Resume target.
-    this.target.resume();
+      // Only the algorithm runs now, so it stays resident.
+      this.algoResident = init || resident;
+      this.algoResumeCount = core.getResumeCount();
+    }
   }
 
   /*
-   * Wait until the breakpoint is hit.
+   * Overload for waitForCompletion with an unknown expected time.
    */
   public long waitForCompletion() throws InterruptedException, TimeoutException, Error {
-    int retries = 20;
-    while (this.target.getState() == Target.State.TARGET_RUNNING) {
-      Thread.sleep(10);
-      if (--retries == 0) {
+    return this.waitForCompletion(0);
+  }
+
+  /*
+   * Wait until the breakpoint is hit.
+   * expectedTime is the expected duration of the function in seconds (a weight), or 0 if unknown.
+   */
+  public long waitForCompletion(double expectedTime)
+      throws InterruptedException, TimeoutException, Error {
+    long timeout = getCompletionTimeout(expectedTime);
+    long start = System.currentTimeMillis();
+    int polls = 0;
+    int interval = 1;
+    // Each poll may let the probe wait for the halt before answering.
+    while (!this.target.waitUntilStopped()) {
+      if (System.currentTimeMillis() - start > timeout) {
         LOGGER.log(Level.SEVERE,
             "Couldn't init the flash - waiting for completation never gets to expected result. "
                 + "You might be able to fix this using openOCD.");
-        throw new TimeoutException("Timeout while expecting for target state == RUNNING");
+        // Whatever the core is running, it may overwrite the algorithm.
+        this.algoResident = false;
+        throw new TimeoutException(
+            "Timeout after " + timeout + " ms while expecting for target state == HALTED");
+      }
+
+      if (++polls > BUSY_POLLS) {
+        Thread.sleep(interval);
+        interval = Math.min(interval * 2, MAX_POLL_INTERVAL_MS);
       }
     }
 
@@ -403,7 +551,8 @@ public class Flash {
       }
 
       // We want to write registers from Cortex-M.
-      // If our selected core isn't a Cortex-M, than something is wrong or it's not implemented yet.
+      // If our selected core isn't a Cortex-M, than something is wrong or it's not implemented
+      // yet.
       if (!(this.target.getSelectedCore() instanceof CortexM)) {
         throw new InternalError(
             "waitForCompletion: Unexpected core. " + this.target.getSelectedCore().toString());
@@ -444,13 +593,31 @@ public class Flash {
 
   public long callFunctionAndWait(long pc, Long r0, Long r1, Long r2, Long r3, Boolean init)
       throws InterruptedException, TimeoutException, Error {
+    return this.callFunctionAndWait(pc, r0, r1, r2, r3, init, 0);
+  }
+
+  /*
+   * Call a function and wait for it. expectedTime is as in waitForCompletion.
+   */
+  public long callFunctionAndWait(long pc, Long r0, Long r1, Long r2, Long r3, Boolean init,
+      double expectedTime) throws InterruptedException, TimeoutException, Error {
     // Use default value if null.
     if (init == null) {
       init = false;
     }
 
     this.callFunction(pc, r0, r1, r2, r3, init);
-    return this.waitForCompletion();
+    return this.waitForCompletion(expectedTime);
+  }
+
+  /*
+   * Return the timeout in ms for a function expected to take expectedTime seconds.
+   */
+  static long getCompletionTimeout(double expectedTime) {
+    if (expectedTime <= 0) {
+      return DEFAULT_TIMEOUT_MS;
+    }
+    return Math.max(MIN_TIMEOUT_MS, (long) (expectedTime * 1000 * TIMEOUT_FACTOR));
   }
 
   private byte[] overrideSecurityBits(long flashPtr, byte[] data) {
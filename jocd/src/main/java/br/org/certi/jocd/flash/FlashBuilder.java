@@ -20,8 +20,9 @@ import static java.lang.Math.min;
 
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.tools.ProgressUpdateInterface;
-import br.org.certi.jocd.util.Util;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
@@ -59,6 +60,7 @@ public class FlashBuilder {
   List<FlashOperation> flashOperations = new ArrayList<FlashOperation>();
 
   List<FlashPage> pageList = new ArrayList<FlashPage>();
+  PageAnalysis pageAnalysis;
 
   public FlashBuilder(Flash flash, long baseAddress) {
     this.flash = flash;
@@ -78,13 +80,13 @@ public class FlashBuilder {
     return true;
   }
 
-  private boolean erased(byte[] data) {
-    for (int i = 0; i < data.length; i++) {
-      if ((data[i] & 0xFF) != 0xFF) {
-        return false;
-      }
+  /*
+   * Drop the unused end of a page buffer.
+   */
+  private static void trimPage(FlashPage page, int length) {
+    if (page != null && length < page.data.length) {
+      page.data = Arrays.copyOf(page.data, length);
     }
-    return true;
   }
 
   /*
@@ -92,6 +94,15 @@ public class FlashBuilder {
    * Note - programming does not start until the method program is called.
    */
   public void addData(long address, byte[] data) {
+    addData(address, ByteBuffer.wrap(data));
+  }
+
+  /*
+   * Add a block of data to be programmed, from the buffer's position to its limit.
+   * The buffer is not copied: a memory mapped file is only paged in as each flash page is
+   * assembled. The buffer must not be modified until program is called.
+   */
+  public void addData(long address, ByteBuffer data) {
     // Protection.
     if (address < this.flashStart) {
       LOGGER.log(Level.SEVERE,
@@ -100,8 +111,17 @@ public class FlashBuilder {
       return;
     }
 
+    FlashOperation newOp = new FlashOperation(address, data.slice());
+
+    // Data is usually added in address order. In that case there is nothing to sort or check.
+    int count = flashOperations.size();
+    if (count == 0 || flashOperations.get(count - 1).end() <= address) {
+      flashOperations.add(newOp);
+      return;
+    }
+
     // Add operation to list.
-    flashOperations.add(new FlashOperation(address, data));
+    flashOperations.add(newOp);
 
     // Keep list of operations sorted.
     Collections.sort(flashOperations);
@@ -110,12 +130,12 @@ public class FlashBuilder {
     FlashOperation prevOp = null;
     for (FlashOperation op : flashOperations) {
       if (prevOp != null) {
-        if ((prevOp.address + prevOp.data.length) > op.address) {
+        if ((prevOp.address + prevOp.length) > op.address) {
           LOGGER.log(Level.SEVERE,
               "Error adding data - Data at " + String.format("%08X", prevOp.address) + ".." + String
-                  .format("%08X", prevOp.address + prevOp.data.length) + " overlaps with " + String
+                  .format("%08X", prevOp.address + prevOp.length) + " overlaps with " + String
                   .format("%08X", op.address) + ".." + String
-                  .format("%08X", op.address + op.data.length));
+                  .format("%08X", op.address + op.length));
           return;
         }
       }
@@ -149,51 +169,58 @@ public class FlashBuilder {
       throw new InternalError("No flash operations listed.");
     }
 
-    // Convert the list of flash operations into flash pages.
+    // Convert the list of flash operations into flash pages. Each page is assembled in a
+    // page-sized buffer, which is only trimmed if the page ends up partially filled.
     int programByteCount = 0;
-    long flashAddress = flashOperations.get(0).address;
-    PageInfo pageInfo = this.flash.getPageInfo(flashAddress);
-    long pageAddress = flashAddress - (flashAddress % pageInfo.size);
-    FlashPage currentPage = new FlashPage(pageAddress, pageInfo.size, new byte[]{},
-        pageInfo.eraseWeight, pageInfo.programWeight);
-    this.pageList.add(currentPage);
+    long flashAddress;
+    long pageAddress;
+    PageInfo pageInfo = null;
+    FlashPage currentPage = null;
+    int pageFill = 0;
 
     int pos;
     for (FlashOperation op : flashOperations) {
       pos = 0;
 
-      while (pos < op.data.length) {
+      while (pos < op.length) {
 
         // Check if operation is in next page.
         flashAddress = op.address + pos;
-        if (flashAddress >= (currentPage.address + currentPage.size)) {
+        if (currentPage == null || flashAddress >= (currentPage.address + currentPage.size)) {
+          trimPage(currentPage, pageFill);
           pageInfo = this.flash.getPageInfo(flashAddress);
           pageAddress = flashAddress - (flashAddress % pageInfo.size);
-          currentPage = new FlashPage(pageAddress, pageInfo.size, new byte[]{},
+          currentPage = new FlashPage(pageAddress, pageInfo.size, new byte[pageInfo.size],
               pageInfo.eraseWeight, pageInfo.programWeight);
           this.pageList.add(currentPage);
+          pageFill = 0;
         }
 
         // Fill the page gap if there is one.
-        long pageDataEnd = currentPage.address + currentPage.data.length;
+        long pageDataEnd = currentPage.address + pageFill;
         if (flashAddress != pageDataEnd) {
-          byte[] oldData = this.flash.target
-              .readBlockMemoryUnaligned8(pageDataEnd, (int) (flashAddress - pageDataEnd));
-          currentPage.data = Util.appendDataInArray(currentPage.data, oldData);
+          int gap = (int) (flashAddress - pageDataEnd);
+          this.flash.target.readBlockMemoryUnaligned8(pageDataEnd, currentPage.data, pageFill, gap);
+          pageFill += gap;
         }
 
         // Copy data to page and increment pos
-        int spaceLeftInPage = pageInfo.size - currentPage.data.length;
-        int spaceLeftInData = op.data.length - pos;
+        int spaceLeftInPage = pageInfo.size - pageFill;
+        int spaceLeftInData = op.length - pos;
         int amount = min(spaceLeftInPage, spaceLeftInData);
-        currentPage.data = Util
-            .appendDataInArray(currentPage.data, Util.getSubArray(op.data, pos, pos + amount));
+        op.get(pos, currentPage.data, pageFill, amount);
+        pageFill += amount;
         programByteCount += amount;
 
         // Increment position.
         pos += amount;
       }
     }
+    trimPage(currentPage, pageFill);
+
+    // Start the erased detection and CRC computation of the pages. They run in the background
+    // while the flash algorithm is loaded and the target analyzes its pages.
+    this.pageAnalysis = new PageAnalysis(this.pageList);
 
     // If smart flash was set to false then mark all pages as requiring programming.
     if (!smartFlash) {
@@ -273,6 +300,8 @@ public class FlashBuilder {
       }
     }
 
+    this.updateCache(chipErase);
+
     this.flash.target.resetStopOnReset(null);
 
     long programFinishTime = System.currentTimeMillis();
@@ -339,13 +368,14 @@ public class FlashBuilder {
    * Compute the number of erased pages.
    * Determine how many pages in the new data are already erased.
    */
-  private void computeChipErasePagesAndWeight() {
+  private void computeChipErasePagesAndWeight() throws InterruptedException {
     int chipEraseCount = 0;
     double chipEraseWeight = 0;
     chipEraseWeight += this.flash.getFlashInfo().eraseWeight;
-    for (FlashPage page : this.pageList) {
+    for (int i = 0; i < this.pageList.size(); i++) {
+      FlashPage page = this.pageList.get(i);
       if (page.erased == null) {
-        page.erased = erased(page.data);
+        page.erased = this.pageAnalysis.isErased(i);
       }
       if (!page.erased) {
         chipEraseCount += 1;
@@ -383,40 +413,61 @@ public class FlashBuilder {
       assumeEstimateCorrect = false;
     }
 
-    // Build list of all the pages that need to be analyzed.
-    List<Sectors> sectorList = new ArrayList<Sectors>();
+    // Build list of all the pages that need to be analyzed, with the host CRCs of their data
+    // (Padded with 0xFF).
     List<FlashPage> pageList = new ArrayList<FlashPage>();
-
-    for (FlashPage page : this.pageList) {
+    for (int i = 0; i < this.pageList.size(); i++) {
+      FlashPage page = this.pageList.get(i);
       if (page.same == null) {
-        // Add sector to computeCrcs.
-        sectorList.add(new Sectors(page.address, page.size));
+        page.crc = this.pageAnalysis.getCrc(i);
         pageList.add(page);
+      }
+    }
 
-        // Compute CRC of data (Padded with 0xFF).
-        byte[] data = page.data;
-        data = Util.fillArray(data, (int) page.size, (byte) 0xFF);
-        CRC32 crc = new CRC32();
-        crc.update(data);
-        page.crc = (crc.getValue() & 0xFFFFFFFFL);
+    // Group the pages in sectors for the analyzer.
+    List<CrcSector> sectors;
+    FlashCache cache = this.flash.getCache();
+    if (cache != null) {
+      sectors = groupCachedPages(pageList, cache);
+    } else {
+      sectors = new ArrayList<CrcSector>();
+      for (FlashPage page : pageList) {
+        sectors.add(new CrcSector(page));
       }
     }
 
-    // Analyze pages.
-    int pageEraseCount = 0;
-    double pageEraseWeight = 0;
-    if (pageList.size() > 0) {
+    // Analyze pages. Sectors of several pages that don't match are analyzed again page by page.
+    while (sectors.size() > 0) {
+      List<Sectors> sectorList = new ArrayList<Sectors>();
+      for (CrcSector sector : sectors) {
+        sectorList.add(sector.sector);
+      }
       long[] crcs = this.flash.computeCrcs(sectorList);
-      for (int i = 0; i < pageList.size() && i < crcs.length; i++) {
-        boolean pageSame = (pageList.get(i).crc == crcs[i]);
-        if (assumeEstimateCorrect) {
-          pageList.get(i).same = pageSame;
-        } else if (pageSame == false) {
-          pageList.get(i).same = false;
+
+      List<CrcSector> retry = new ArrayList<CrcSector>();
+      for (int i = 0; i < sectors.size() && i < crcs.length; i++) {
+        CrcSector sector = sectors.get(i);
+        boolean sectorSame = (sector.crc == crcs[i]);
+        if (!sectorSame && sector.pages.size() > 1) {
+          for (FlashPage page : sector.pages) {
+            retry.add(new CrcSector(page));
+          }
+          continue;
+        }
+        for (FlashPage page : sector.pages) {
+          if (assumeEstimateCorrect) {
+            page.same = sectorSame;
+          } else if (sectorSame == false) {
+            page.same = false;
+          }
         }
       }
+      sectors = retry;
     }
 
+    int pageEraseCount = 0;
+    double pageEraseWeight = 0;
+
     // Put together page and time estimate.
     for (FlashPage page : this.pageList) {
       if (page.same == null) {
@@ -435,6 +486,90 @@ public class FlashBuilder {
     this.pageEraseWeight = pageEraseWeight;
   }
 
+  /*
+   * Use the CRCs cached from the last programming to analyze fewer sectors.
+   *
+   * Pages whose cached CRC differs from the new data are marked to be programmed without asking
+   * the target. Runs of pages expected to be the same are grouped in aligned sectors as large as
+   * possible, so an unchanged image takes only a few sectors to confirm.
+   */
+  private List<CrcSector> groupCachedPages(List<FlashPage> pageList, FlashCache cache) {
+    List<CrcSector> sectors = new ArrayList<CrcSector>();
+
+    int i = 0;
+    while (i < pageList.size()) {
+      FlashPage page = pageList.get(i);
+      Long cached = cache.getCrc(page.address);
+      if (cached == null || cached != page.crc) {
+        if (cached != null) {
+          page.same = false;
+        } else {
+          sectors.add(new CrcSector(page));
+        }
+        i++;
+        continue;
+      }
+
+      // Double the sector while it stays aligned and all its pages are expected to be the same.
+      int count = 1;
+      while (page.address % (page.size * count * 2) == 0
+          && expectedSame(pageList, i, i + count * 2, cache)) {
+        count *= 2;
+      }
+
+      sectors.add(new CrcSector(pageList.subList(i, i + count)));
+      i += count;
+    }
+    return sectors;
+  }
+
+  /*
+   * Return true if pageList[first..end) are contiguous pages of the same size and have the same
+   * CRCs as the cache.
+   */
+  private static boolean expectedSame(List<FlashPage> pageList, int first, int end,
+      FlashCache cache) {
+    if (end > pageList.size()) {
+      return false;
+    }
+
+    FlashPage firstPage = pageList.get(first);
+    for (int i = first; i < end; i++) {
+      FlashPage page = pageList.get(i);
+      Long cached = cache.getCrc(page.address);
+      if (page.size != firstPage.size
+          || page.address != firstPage.address + firstPage.size * (i - first)
+          || cached == null || cached != page.crc) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Update the cache with the pages just programmed. Pages that failed to program are left out
+   * of it, as their contents are unknown.
+   */
+  private void updateCache(boolean chipErase) throws InterruptedException {
+    FlashCache cache = this.flash.getCache();
+    if (cache == null) {
+      return;
+    }
+
+    if (chipErase) {
+      cache.clear();
+    }
+    for (int i = 0; i < this.pageList.size(); i++) {
+      FlashPage page = this.pageList.get(i);
+      if (page.programFailed) {
+        cache.removeCrc(page.address);
+      } else {
+        cache.putCrc(page.address, this.pageAnalysis.getCrc(i));
+      }
+    }
+    cache.save();
+  }
+
   /*
    * Program by first performing a chip erase.
    */
@@ -453,7 +588,7 @@ public class FlashBuilder {
 
     for (FlashPage page : this.pageList) {
       if (page.erased == null || page.erased == false) {
-        this.flash.programPage(page.address, page.data);
+        page.programFailed = (this.flash.programPage(page.address, page.data) != 0);
         progress += page.getProgramWeight();
         progressUpdate.progressUpdateCallback((int) ((100 * progress) / chipEraseWeight));
       }
@@ -462,20 +597,6 @@ public class FlashBuilder {
     return FlashBuilder.FLASH_CHIP_ERASE;
   }
 
-  private int nextUnerasedPage(int startIndex) {
-
-    FlashPage page;
-
-    for (int i = startIndex; i < pageList.size(); i++) {
-      page = this.pageList.get(i);
-
-      if (page.erased == false) {
-        return i;
-      }
-    }
-    return -1;
-  }
-
   /*
    * Program by first performing a chip erase.
    */
@@ -492,57 +613,17 @@ public class FlashBuilder {
     this.flash.eraseAll();
     progress += this.flash.getFlashInfo().eraseWeight;
 
-    // Set up page and buffer info.
-    int errorCount = 0;
-    int currentBuffer = 0;
-    int nextBuffer = 1;
-
-    int pageIndex = nextUnerasedPage(0);
-    if (pageIndex < 0) {
-      LOGGER
-          .log(Level.SEVERE, "Unexpected nextUnerasedPage result - All pages are already erased.");
-    }
-    FlashPage page = this.pageList.get(pageIndex);
-
-    // Load first page buffer.
-    this.flash.loadPageBuffer(currentBuffer, page.address, page.data);
-
-    while (pageIndex >= 0) {
-      // Kick off this page program.
-      long currentAddress = page.address;
-      double currentWeight = page.getProgramWeight();
-      this.flash.startProgramPageWithBuffer(currentBuffer, currentAddress);
-
-      // Get next page and load it.
-      pageIndex = nextUnerasedPage(pageIndex + 1);
-      if (pageIndex >= 0) {
-        page = this.pageList.get(pageIndex);
-        this.flash.loadPageBuffer(nextBuffer, page.address, page.data);
-      }
-
-      // Wait for the program to complete.
-      long result = this.flash.waitForCompletion();
-
-      // Check the return code.
-      if (result != 0) {
-        LOGGER.log(Level.SEVERE,
-            String.format("programPage(0x%08x) error: %d.", currentAddress, result));
-        errorCount++;
-        if (errorCount > this.maxErrors) {
-          LOGGER.log(Level.SEVERE, "Too many page programming errors, aborting program operation.");
-          break;
-        }
+    List<FlashPage> pages = new ArrayList<FlashPage>();
+    for (FlashPage page : this.pageList) {
+      if (page.erased == null || page.erased == false) {
+        pages.add(page);
       }
-
-      // Swap buffers.
-      int temp = currentBuffer;
-      currentBuffer = nextBuffer;
-      nextBuffer = temp;
-
-      // Update progress.
-      progress += currentWeight;
-      progressUpdate.progressUpdateCallback((int) (100 * progress / this.chipEraseWeight));
     }
+    if (pages.isEmpty()) {
+      LOGGER.log(Level.SEVERE, "Unexpected page list - All pages are already erased.");
+    }
+
+    this.programPagesPipelined(pages, false, progress, this.chipEraseWeight, progressUpdate);
 
     progressUpdate.progressUpdateCallback(100);
     return FlashBuilder.FLASH_CHIP_ERASE;
@@ -574,8 +655,9 @@ public class FlashBuilder {
       }
 
       if (page.same == false) {
-        this.flash.erasePage(page.address);
-        this.flash.programPage(page.address, page.data);
+        long eraseResult = this.flash.erasePage(page.address);
+        long programResult = this.flash.programPage(page.address, page.data);
+        page.programFailed = (eraseResult != 0 || programResult != 0);
         actualPageEraseCount++;
         actualPageEraseWeight += page.getEraseProgramWeight();
       }
@@ -622,26 +704,11 @@ public class FlashBuilder {
     return progress;
   }
 
-  private int nextNonsamePage(int startIndex) {
-    FlashPage page;
-
-    for (int i = startIndex; i < pageList.size(); i++) {
-      page = this.pageList.get(i);
-
-      if (page.same == false) {
-        return i;
-      }
-    }
-    return -1;
-  }
-
   /*
    * Program by performing sector erases.
    */
   public int pageEraseProgramDoubleBuffer(ProgressUpdateInterface progressUpdate)
       throws InterruptedException, TimeoutException, Error {
-    int actualPageEraseCount = 0;
-    double actualPageEraseWeight = 0;
     double progress = 0;
 
     progressUpdate.progressUpdateCallback(0);
@@ -650,86 +717,160 @@ public class FlashBuilder {
     // while simultaneously programming it.
     progress = this.scanPagesForSame(progressUpdate);
 
-    // Set up page and buffer info.
-    int errorCount = 0;
-    int currentBuffer = 0;
-    int nextBuffer = 1;
+    List<FlashPage> pages = new ArrayList<FlashPage>();
+    for (FlashPage page : this.pageList) {
+      // Assert (page.same != null).
+      if (page.same == null) {
+        throw new Error("pageEraseProgramDoubleBuffer: page.same == null");
+      }
+      if (page.same == false) {
+        pages.add(page);
+      }
+    }
 
-    int pageIndex = nextNonsamePage(0);
-    FlashPage page;
+    this.programPagesPipelined(pages, true, progress, this.pageEraseWeight, progressUpdate);
 
-    // Make sure there are actually pages to program differently from current flash contents.
-    if (pageIndex >= 0) {
-      page = pageList.get(pageIndex);
+    progressUpdate.progressUpdateCallback(100);
 
-      // Load first page buffer.
-      this.flash.loadPageBuffer(currentBuffer, page.address, page.data);
+    LOGGER.log(Level.FINE, "Estimated page erase count: " + this.pageEraseCount);
+    LOGGER.log(Level.FINE, "Actual page erase count: " + pages.size());
 
-      while (pageIndex >= 0) {
-        // Assert (page.same != null).
-        if (page.same == null) {
-          throw new Error("pageEraseProgramDoubleBuffer: page.same == null");
-        }
+    return FlashBuilder.FLASH_PAGE_ERASE;
+  }
 
-        // Kick off this page program.
-        long currentAddress = page.address;
-        double currentWeight = page.getEraseProgramWeight();
-        this.flash.erasePage(currentAddress);
-        this.flash.startProgramPageWithBuffer(currentBuffer, currentAddress);
-        actualPageEraseCount++;
-        actualPageEraseWeight += page.getEraseProgramWeight();
+  /*
+   * Erase (if requested) and program the pages using all the page buffers of the flash algorithm.
+   *
+   * Erase, buffer load and program are separate stages. While the target erases or programs a
+   * page, the following pages are loaded in the free buffers, so the time per page gets close to
+   * the larger of the target time and the transfer time instead of their sum.
+   */
+  private void programPagesPipelined(List<FlashPage> pages, boolean erase, double progress,
+      double totalWeight, ProgressUpdateInterface progressUpdate)
+      throws InterruptedException, TimeoutException, Error {
+    int bufferCount = this.flash.getPageBufferCount();
+    int errorCount = 0;
+    // Page i is always loaded in buffer (i % bufferCount).
+    int loaded = 0;
 
-        // Get next page and load it.
-        pageIndex = nextNonsamePage(pageIndex + 1);
-        if (pageIndex >= 0) {
-          page = pageList.get(pageIndex);
-          this.flash.loadPageBuffer(nextBuffer, page.address, page.data);
-        }
+    for (int i = 0; i < pages.size(); i++) {
+      FlashPage page = pages.get(i);
+      long currentAddress = page.address;
 
-        // Wait for the program to complete.
-        long result = this.flash.waitForCompletion();
+      // Nothing was loaded ahead for the first page.
+      if (loaded == i) {
+        this.flash.loadPageBuffer(i % bufferCount, page.address, page.data);
+        loaded++;
+      }
 
-        // Check the return code.
+      if (erase) {
+        this.flash.startErasePage(currentAddress);
+        loaded = this.loadPagesAhead(pages, i, loaded, bufferCount);
+        long result = this.flash.waitForCompletion(page.eraseWeight);
         if (result != 0) {
           LOGGER.log(Level.SEVERE,
-              String.format("programPage(0x%08x) error: %d", currentAddress, result));
-          errorCount++;
-          if (errorCount > this.maxErrors) {
-            LOGGER
-                .log(Level.SEVERE, "Too many page programming errors, aborting program operation.");
-            break;
-          }
+              String.format("erasePage(0x%08x) error: %d", currentAddress, result));
+          page.programFailed = true;
         }
+      }
 
-        // Swap buffers.
-        int temp = currentBuffer;
-        currentBuffer = nextBuffer;
-        nextBuffer = temp;
+      // Kick off this page program.
+      this.flash.startProgramPageWithBuffer(i % bufferCount, currentAddress);
+      loaded = this.loadPagesAhead(pages, i, loaded, bufferCount);
 
-        // Update progress.
-        progress += currentWeight;
-        if (this.pageEraseWeight > 0) {
-          progressUpdate.progressUpdateCallback((int) (100 * progress / this.pageEraseWeight));
+      // Wait for the program to complete.
+      long result = this.flash.waitForCompletion(page.programWeight);
+
+      // Check the return code.
+      if (result != 0) {
+        LOGGER.log(Level.SEVERE,
+            String.format("programPage(0x%08x) error: %d", currentAddress, result));
+        page.programFailed = true;
+        errorCount++;
+        if (errorCount > this.maxErrors) {
+          LOGGER.log(Level.SEVERE, "Too many page programming errors, aborting program operation.");
+          for (FlashPage skipped : pages.subList(i + 1, pages.size())) {
+            skipped.programFailed = true;
+          }
+          break;
         }
       }
+
+      // Update progress.
+      progress += erase ? page.getEraseProgramWeight() : page.getProgramWeight();
+      if (totalWeight > 0) {
+        progressUpdate.progressUpdateCallback((int) (100 * progress / totalWeight));
+      }
     }
+  }
 
-    progressUpdate.progressUpdateCallback(100);
+  /*
+   * Load the pages following pages[current] in the free page buffers. The buffer of the current
+   * page is busy. Return the new number of loaded pages.
+   */
+  private int loadPagesAhead(List<FlashPage> pages, int current, int loaded, int bufferCount)
+      throws TimeoutException, Error {
+    while (loaded < pages.size() && loaded < current + bufferCount) {
+      FlashPage page = pages.get(loaded);
+      this.flash.loadPageBuffer(loaded % bufferCount, page.address, page.data);
+      loaded++;
+    }
+    return loaded;
+  }
 
-    LOGGER.log(Level.FINE, "Estimated page erase count: " + this.pageEraseCount);
-    LOGGER.log(Level.FINE, "Actual page erase count: " + actualPageEraseCount);
+  /*
+   * A sector for the analyzer and the CRC expected for the pages in it.
+   */
+  private static class CrcSector {
 
-    return FlashBuilder.FLASH_PAGE_ERASE;
+    final Sectors sector;
+    final List<FlashPage> pages;
+    final long crc;
+
+    CrcSector(FlashPage page) {
+      this(Collections.singletonList(page));
+    }
+
+    CrcSector(List<FlashPage> pages) {
+      FlashPage first = pages.get(0);
+      this.sector = new Sectors(first.address, first.size * pages.size());
+      this.pages = pages;
+
+      if (pages.size() == 1) {
+        this.crc = first.crc;
+      } else {
+        CRC32 crc = new CRC32();
+        for (FlashPage page : pages) {
+          PageAnalysis.updateCrc(crc, page);
+        }
+        this.crc = crc.getValue() & 0xFFFFFFFFL;
+      }
+    }
   }
 
   private class FlashOperation implements Comparable<FlashOperation> {
 
     public final long address;
-    final byte[] data;
+    final ByteBuffer data;
+    final int length;
 
-    public FlashOperation(long address, byte[] data) {
+    public FlashOperation(long address, ByteBuffer data) {
       this.address = address;
       this.data = data;
+      this.length = data.remaining();
+    }
+
+    long end() {
+      return address + length;
+    }
+
+    /*
+     * Copy length bytes starting at offset out of this operation's data into dst.
+     */
+    void get(int offset, byte[] dst, int dstOffset, int length) {
+      ByteBuffer view = this.data.duplicate();
+      view.position(offset);
+      view.get(dst, dstOffset, length);
     }
 
     @Override
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.flash;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * CRC32 of each flash page as it was left by the last programming of a board, stored in a file
+ * named after the board unique ID.
+ *
+ * The cache is only an estimate: the board may have been programmed by other means since, so
+ * the FlashBuilder always confirms it with the target before trusting it.
+ */
+public class FlashCache {
+
+  // Logging
+  private final static String CLASS_NAME = FlashCache.class.getName();
+  private final static Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private final File file;
+  private final Map<Long, Long> crcs = new TreeMap<Long, Long>();
+
+  /*
+   * Constructor. Loads the cache of the board, if there is one in directory.
+   */
+  public FlashCache(File directory, String uniqueId) {
+    // Keep the file name safe whatever the probe reports as its ID.
+    this.file = new File(directory, uniqueId.replaceAll("[^A-Za-z0-9_-]", "_") + ".crc");
+    load();
+  }
+
+  public synchronized Long getCrc(long pageAddress) {
+    return crcs.get(pageAddress);
+  }
+
+  public synchronized void putCrc(long pageAddress, long crc) {
+    crcs.put(pageAddress, crc);
+  }
+
+  public synchronized void removeCrc(long pageAddress) {
+    crcs.remove(pageAddress);
+  }
+
+  public synchronized void clear() {
+    crcs.clear();
+  }
+
+  /*
+   * Read the cache file. A missing or corrupt file gives an empty cache.
+   */
+  private void load() {
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(file));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length != 2) {
+          continue;
+        }
+        crcs.put(Long.parseLong(fields[0], 16), Long.parseLong(fields[1], 16));
+      }
+    } catch (FileNotFoundException e) {
+      LOGGER.log(Level.FINE, "No flash cache at " + file);
+    } catch (IOException | NumberFormatException e) {
+      LOGGER.log(Level.WARNING, "Ignoring flash cache " + file + ". Exception: " + e.toString());
+      crcs.clear();
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          LOGGER.log(Level.FINE, "Couldn't close the file: " + file);
+        }
+      }
+    }
+  }
+
+  /*
+   * Write the cache file. It is written aside and renamed, so a crash never leaves it
+   * truncated.
+   */
+  public synchronized void save() {
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      Writer writer = new FileWriter(temp);
+      try {
+        for (Map.Entry<Long, Long> entry : crcs.entrySet()) {
+          writer.write(String.format("%08x %08x\n", entry.getKey(), entry.getValue()));
+        }
+      } finally {
+        writer.close();
+      }
+      if (!temp.renameTo(file)) {
+        // Windows won't rename over an existing file.
+        file.delete();
+        if (!temp.renameTo(file)) {
+          throw new IOException("Couldn't rename " + temp + " to " + file);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING,
+          "Couldn't save flash cache " + file + ". Exception: " + e.toString());
+      temp.delete();
+    }
+  }
+}
@@ -24,6 +24,9 @@ public class FlashPage {
   final double programWeight;
   Boolean erased = null;
   Boolean same = null;
+  // Set if erasing or programming the page failed, or was never done because programming was
+  // aborted. The page contents are unknown then.
+  boolean programFailed = false;
 
   public long crc;
 
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.flash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/*
+ * Host side analysis of the pages to be programmed: which ones are erased (all 0xFF) and the
+ * CRC32 of each one padded with 0xFF up to its size.
+ *
+ * Large images are analyzed by a thread pool while the caller keeps talking to the target.
+ * The results are kept here, not in the pages, so the caller may change the pages' flags
+ * meanwhile.
+ */
+public class PageAnalysis {
+
+  // Below this number of pages per thread, the analysis is done in the caller's thread.
+  static final int MIN_PAGES_PER_TASK = 64;
+
+  private final List<FlashPage> pages;
+  private final boolean[] erased;
+  private final long[] crcs;
+
+  private final List<Future<?>> erasedTasks = new ArrayList<Future<?>>();
+  private final List<Future<?>> crcTasks = new ArrayList<Future<?>>();
+
+  /*
+   * Start the analysis of the pages. The pages' data must not change until it is done.
+   */
+  public PageAnalysis(List<FlashPage> pages) {
+    this.pages = pages;
+    this.erased = new boolean[pages.size()];
+    this.crcs = new long[pages.size()];
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    int taskCount = Math.min(threads, pages.size() / MIN_PAGES_PER_TASK);
+    if (taskCount < 2) {
+      computeErased(0, pages.size());
+      computeCrcs(0, pages.size());
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(taskCount, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "PageAnalysis");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    // Erased detection first, as it is needed before the CRCs.
+    int perTask = (pages.size() + taskCount - 1) / taskCount;
+    for (int start = 0; start < pages.size(); start += perTask) {
+      final int from = start;
+      final int to = Math.min(start + perTask, pages.size());
+      erasedTasks.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          computeErased(from, to);
+        }
+      }));
+    }
+    for (int start = 0; start < pages.size(); start += perTask) {
+      final int from = start;
+      final int to = Math.min(start + perTask, pages.size());
+      crcTasks.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          computeCrcs(from, to);
+        }
+      }));
+    }
+
+    // Threads exit once the submitted tasks are done.
+    executor.shutdown();
+  }
+
+  /*
+   * Return true if the page at index has only 0xFF bytes.
+   */
+  public boolean isErased(int index) throws InterruptedException {
+    waitFor(erasedTasks);
+    return erased[index];
+  }
+
+  /*
+   * Return the CRC32 of the page at index, padded with 0xFF up to the page size.
+   */
+  public long getCrc(int index) throws InterruptedException {
+    waitFor(crcTasks);
+    return crcs[index];
+  }
+
+  private void computeErased(int from, int to) {
+    for (int i = from; i < to; i++) {
+      erased[i] = isErased(pages.get(i).data);
+    }
+  }
+
+  private void computeCrcs(int from, int to) {
+    CRC32 crc = new CRC32();
+    for (int i = from; i < to; i++) {
+      crc.reset();
+      updateCrc(crc, pages.get(i));
+      crcs[i] = crc.getValue() & 0xFFFFFFFFL;
+    }
+  }
+
+  /*
+   * Add the data of the page, padded with 0xFF up to the page size, to crc.
+   */
+  static void updateCrc(CRC32 crc, FlashPage page) {
+    crc.update(page.data);
+
+    int paddingSize = (int) page.size - page.data.length;
+    if (paddingSize > 0) {
+      byte[] padding = new byte[paddingSize];
+      Arrays.fill(padding, (byte) 0xFF);
+      crc.update(padding);
+    }
+  }
+
+  static boolean isErased(byte[] data) {
+    for (int i = 0; i < data.length; i++) {
+      if (data[i] != (byte) 0xFF) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void waitFor(List<Future<?>> tasks) throws InterruptedException {
+    for (Future<?> task : tasks) {
+      try {
+        task.get();
+      } catch (ExecutionException e) {
+        // The tasks don't throw checked exceptions.
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw (java.lang.Error) cause;
+      }
+    }
+    tasks.clear();
+  }
+}
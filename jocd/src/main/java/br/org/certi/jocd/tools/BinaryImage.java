@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Read-only view of a raw binary image.
+ *
+ * The file is memory mapped instead of read into the heap, so the pages of the image are
+ * only loaded when the flash builder copies them into flash pages.
+ */
+public class BinaryImage implements Closeable {
+
+  private final FileInputStream stream;
+  private final ByteBuffer data;
+
+  private BinaryImage(FileInputStream stream, ByteBuffer data) {
+    this.stream = stream;
+    this.data = data;
+  }
+
+  /*
+   * Map the whole file.
+   */
+  public static BinaryImage open(File file) throws IOException {
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Image is too large: " + file + " (" + size + " bytes)");
+      }
+      ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return new BinaryImage(stream, data);
+    } catch (IOException e) {
+      stream.close();
+      throw e;
+    }
+  }
+
+  /*
+   * Return a read-only buffer with the image contents, positioned at its start.
+   */
+  public ByteBuffer getData() {
+    return this.data.asReadOnlyBuffer();
+  }
+
+  public int size() {
+    return this.data.capacity();
+  }
+
+  /*
+   * Close the file. The mapping stays valid until the buffer is garbage collected.
+   */
+  @Override
+  public void close() throws IOException {
+    this.stream.close();
+  }
+}
@@ -15,6 +15,7 @@
  */
 package br.org.certi.jocd.tools;
 
+import br.org.certi.jocd.Jocd;
 import br.org.certi.jocd.Jocd.ErrorCode;
 import br.org.certi.jocd.board.MbedBoard;
 import br.org.certi.jocd.board.MbedBoard.NoBoardConnectedException;
@@ -24,19 +25,26 @@ import br.org.certi.jocd.dapaccess.dapexceptions.DeviceError;
 import br.org.certi.jocd.dapaccess.dapexceptions.Error;
 import br.org.certi.jocd.dapaccess.dapexceptions.InsufficientPermissions;
 import br.org.certi.jocd.flash.FlashBuilder;
+import br.org.certi.jocd.flash.FlashCache;
 import br.org.certi.jocd.flash.PageInfo;
 import br.org.certi.jocd.target.TargetFactory.targetEnum;
 import cz.jaybee.intelhex.IntelHexException;
 import cz.jaybee.intelhex.Parser;
-import cz.jaybee.intelhex.listeners.RangeDetector;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -126,6 +134,62 @@ public class FlashTool {
         null);      // frequency - use the default frequency.
   }
 
+  /*
+   * Flash the same file into several boards at the same time.
+   * Each board is driven by its own link, so the boards are programmed
+   * concurrently using a pool of "threads" workers. Returns the error
+   * code of each board, in the same order of uniqueIds.
+   */
+  public Map<String, ErrorCode> flashBoards(final String file, List<String> uniqueIds,
+      final BoardProgressUpdateInterface progressUpdate, int threads) {
+    Map<String, ErrorCode> results = new LinkedHashMap<String, ErrorCode>();
+    if (uniqueIds.isEmpty()) {
+      return results;
+    }
+    if (threads < 1) {
+      threads = uniqueIds.size();
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, uniqueIds.size()));
+    List<Future<ErrorCode>> futures = new ArrayList<Future<ErrorCode>>();
+    try {
+      for (final String uniqueId : uniqueIds) {
+        futures.add(executor.submit(new Callable<ErrorCode>() {
+          @Override
+          public ErrorCode call() {
+            FlashTool tool = new FlashTool();
+            return tool.flashBoard(file, new ProgressUpdateInterface() {
+              @Override
+              public void progressUpdateCallback(int percentage) {
+                if (progressUpdate != null) {
+                  progressUpdate.progressUpdateCallback(uniqueId, percentage);
+                }
+              }
+            }, uniqueId);
+          }
+        }));
+      }
+
+      for (int i = 0; i < uniqueIds.size(); i++) {
+        String uniqueId = uniqueIds.get(i);
+        try {
+          results.put(uniqueId, futures.get(i).get());
+        } catch (ExecutionException e) {
+          LOGGER.log(Level.SEVERE,
+              "Exception while flashing board " + uniqueId + ". Exception: " + e.getCause());
+          results.put(uniqueId, ErrorCode.COMMUNICATION_FAILURE);
+        } catch (InterruptedException e) {
+          LOGGER.log(Level.WARNING, "Interrupted while flashing board " + uniqueId);
+          results.put(uniqueId, ErrorCode.NO_OPERATION_PERFORMED);
+          Thread.currentThread().interrupt();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return results;
+  }
+
   public ErrorCode flashBoard(
       ProgressUpdateInterface progressUpdate,
       String file,
@@ -189,176 +253,191 @@ public class FlashTool {
       return ErrorCode.INVALID_BOARD;
     }
 
-    if (chipErase) {
-      LOGGER.log(Level.FINE, "Mass erasing device...");
-      if (selectedBoard.target.massErase()) {
-        LOGGER.log(Level.FINE, "Successfully erased.");
-      } else {
-        LOGGER.log(Level.SEVERE, "Error while mass erasing board.");
-        return ErrorCode.MASS_ERASING_ERROR;
+    return flashBoard(selectedBoard, progressUpdate, file, chipErase, sectorErase, address, count,
+        format, fastProgram);
+  }
+
+  /*
+   * Flash a board already chosen and initialized. The board is always uninitialized
+   * before returning, even on errors, to release its link.
+   */
+  public ErrorCode flashBoard(MbedBoard selectedBoard, ProgressUpdateInterface progressUpdate,
+      String file, boolean chipErase, boolean sectorErase, Long address, Integer count,
+      String format, boolean fastProgram) {
+    try {
+      // Use the page CRCs from the last time this board was programmed.
+      FlashCache cache = null;
+      if (Jocd.flashCacheDirectory != null) {
+        cache = new FlashCache(Jocd.flashCacheDirectory, selectedBoard.uniqueId);
+        selectedBoard.flash.setCache(cache);
       }
-    }
 
-    if (file == null || file.isEmpty()) {
-      try {
-        if (chipErase) {
-          LOGGER.log(Level.FINE, "Erasing chip...");
-          selectedBoard.flash.init();
-          selectedBoard.flash.eraseAll();
-          LOGGER.log(Level.FINE, "Done.");
-        } else if (sectorErase) {
-          selectedBoard.flash.init();
-          Long pageAddr = address;
-
-          for (int i = 0; i < count; i++) {
-            PageInfo pageInfo = selectedBoard.flash.getPageInfo(pageAddr);
-            if (pageInfo == null) {
-              break;
-            }
+      if (chipErase) {
+        LOGGER.log(Level.FINE, "Mass erasing device...");
+        if (selectedBoard.target.massErase()) {
+          LOGGER.log(Level.FINE, "Successfully erased.");
+          if (cache != null) {
+            cache.clear();
+          }
+        } else {
+          LOGGER.log(Level.SEVERE, "Error while mass erasing board.");
+          return ErrorCode.MASS_ERASING_ERROR;
+        }
+      }
+
+      if (file == null || file.isEmpty()) {
+        try {
+          if (chipErase) {
+            LOGGER.log(Level.FINE, "Erasing chip...");
+            selectedBoard.flash.init();
+            selectedBoard.flash.eraseAll();
+            LOGGER.log(Level.FINE, "Done.");
+          } else if (sectorErase) {
+            selectedBoard.flash.init();
+            Long pageAddr = address;
+
+            for (int i = 0; i < count; i++) {
+              PageInfo pageInfo = selectedBoard.flash.getPageInfo(pageAddr);
+              if (pageInfo == null) {
+                break;
+              }
 
-            // Align page address on first time through.
-            if (i == 0) {
-              Long delta = pageAddr % pageInfo.size;
+              // Align page address on first time through.
+              if (i == 0) {
+                Long delta = pageAddr % pageInfo.size;
 
-              if (delta > 0) {
-                // Address unaligned.
-                LOGGER.log(Level.WARNING, "Warning: sector address " +
-                    String.format("%08X", pageAddr) + " is unaligned");
-                pageAddr -= delta;
+                if (delta > 0) {
+                  // Address unaligned.
+                  LOGGER.log(Level.WARNING, "Warning: sector address " +
+                      String.format("%08X", pageAddr) + " is unaligned");
+                  pageAddr -= delta;
+                }
               }
+              LOGGER.log(Level.FINE, "Erasing sector " + String.format("%08X", pageAddr));
+              selectedBoard.flash.erasePage(pageAddr);
+              pageAddr += pageInfo.size;
             }
-            LOGGER.log(Level.FINE, "Erasing sector " + String.format("%08X", pageAddr));
-            selectedBoard.flash.erasePage(pageAddr);
-            pageAddr += pageInfo.size;
+          } else {
+            LOGGER.log(Level.FINE, "No operation performed");
+            return ErrorCode.NO_OPERATION_PERFORMED;
           }
-        } else {
-          LOGGER.log(Level.FINE, "No operation performed");
-          return ErrorCode.NO_OPERATION_PERFORMED;
+        } catch (InterruptedException e) {
+          LOGGER.log(Level.SEVERE, e.toString());
+          return ErrorCode.COMMUNICATION_FAILURE;
+        } catch (TimeoutException e) {
+          LOGGER.log(Level.SEVERE, e.toString());
+          return ErrorCode.COMMUNICATION_FAILURE;
+        } catch (Error error) {
+          LOGGER.log(Level.SEVERE, "DAP Access error. Exception: " + error.toString());
+          return ErrorCode.COMMUNICATION_FAILURE;
+        }
+        if (cache != null) {
+          cache.save();
         }
-      } catch (InterruptedException e) {
-        LOGGER.log(Level.SEVERE, e.toString());
-        return ErrorCode.COMMUNICATION_FAILURE;
-      } catch (TimeoutException e) {
-        LOGGER.log(Level.SEVERE, e.toString());
-        return ErrorCode.COMMUNICATION_FAILURE;
-      } catch (Error error) {
-        LOGGER.log(Level.SEVERE, "DAP Access error. Exception: " + error.toString());
-        return ErrorCode.COMMUNICATION_FAILURE;
+        return ErrorCode.SUCCESS;
       }
-      return ErrorCode.SUCCESS;
-    }
-
-    // Check if the format was provided. If no format
-    // were provided, than use the file's extension.
-    if (format == null || format.isEmpty()) {
-      format = file.substring(file.lastIndexOf("."));
-    }
 
-    // If it is a binary file.
-    if (format.equals(".bin")) {
-      // If no address is specified use the start of rom.
-      if (address == null) {
-        address = selectedBoard.flash.getFlashInfo().romStart;
+      // Check if the format was provided. If no format
+      // were provided, than use the file's extension.
+      if (format == null || format.isEmpty()) {
+        format = file.substring(file.lastIndexOf("."));
       }
 
-      // Open the file.
-      InputStream is = null;
-      try {
-        File inputFile = new File(file);
-        is = new FileInputStream(file);
-        byte[] byteBuffer = new byte[(int) inputFile.length()];
-
-        if (is.read(byteBuffer) == -1) {
-          throw new IOException(
-              "EOF reached while trying to read the file");
+      // If it is a binary file.
+      if (format.equals(".bin")) {
+        // If no address is specified use the start of rom.
+        if (address == null) {
+          address = selectedBoard.flash.getFlashInfo().romStart;
         }
 
-        selectedBoard.flash
-            .flashBlock(address, byteBuffer, true, chipErase, progressUpdate, fastProgram);
-      } catch (FileNotFoundException e) {
-        LOGGER.log(Level.SEVERE, "File not found: " + file);
-        return ErrorCode.FILE_NOT_FOUND;
-      } catch (IOException e) {
-        LOGGER.log(Level.SEVERE, "Couldn't read the file: " + file);
-        return ErrorCode.FILE_NOT_FOUND;
-      } catch (InterruptedException e) {
-        LOGGER.log(Level.WARNING,
-            "InterruptedException while trying to parse IntelHex. Exception: " + e.toString());
-        return ErrorCode.CORRUPT_HEX_FILE;
-      } catch (Error e) {
-        LOGGER.log(Level.SEVERE, "Error. Exception caught: " + e.getMessage());
-        return ErrorCode.COMMUNICATION_FAILURE;
-      } catch (TimeoutException e) {
-        LOGGER.log(Level.SEVERE, "Timeout exception on program. Exception: " + e.toString());
-        return ErrorCode.COMMUNICATION_FAILURE;
-      } catch (OutOfMemoryError e) {
-        LOGGER.log(Level.SEVERE, "Couldn't allocate memory to program the file: " + file);
-        return ErrorCode.NO_OPERATION_PERFORMED;
-      } finally {
+        // Map the file. It is paged in while the flash pages are being assembled.
+        BinaryImage image = null;
         try {
-          is.close();
+          image = BinaryImage.open(new File(file));
+
+          selectedBoard.flash
+              .flashBlock(address, image.getData(), true, chipErase, progressUpdate, fastProgram);
+        } catch (FileNotFoundException e) {
+          LOGGER.log(Level.SEVERE, "File not found: " + file);
+          return ErrorCode.FILE_NOT_FOUND;
         } catch (IOException e) {
-          LOGGER.log(Level.FINE, "Couldn't close the file: " + file);
+          LOGGER.log(Level.SEVERE, "Couldn't read the file: " + file);
+          return ErrorCode.FILE_NOT_FOUND;
+        } catch (InterruptedException e) {
+          LOGGER.log(Level.WARNING,
+              "InterruptedException while trying to parse IntelHex. Exception: " + e.toString());
+          return ErrorCode.CORRUPT_HEX_FILE;
+        } catch (Error e) {
+          LOGGER.log(Level.SEVERE, "Error. Exception caught: " + e.getMessage());
+          return ErrorCode.COMMUNICATION_FAILURE;
+        } catch (TimeoutException e) {
+          LOGGER.log(Level.SEVERE, "Timeout exception on program. Exception: " + e.toString());
+          return ErrorCode.COMMUNICATION_FAILURE;
+        } catch (OutOfMemoryError e) {
+          LOGGER.log(Level.SEVERE, "Couldn't allocate memory to program the file: " + file);
+          return ErrorCode.NO_OPERATION_PERFORMED;
+        } finally {
+          try {
+            if (image != null) {
+              image.close();
+            }
+          } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Couldn't close the file: " + file);
+          }
         }
       }
-    }
-    // Intel Hex format.
-    else if (format.equals(".hex")) {
-      FileInputStream is = null;
-      try {
-        // Create input stream of some IntelHex data.
-        is = new FileInputStream(new File(file));
-
-        // Create IntelHexParserObject.
-        Parser intelhexParser = new Parser(is);
-
-        // Create a listener to IntelHex.
-        // 1st iteration - detect all ranges.
-        RangeDetector rangeDetector = new RangeDetector();
-        intelhexParser.setDataListener(rangeDetector);
-        intelhexParser.parse();
-        is.getChannel().position(0);
-
-        // Create another listener to IntelHex.
-        // 2nd iteration - write the data into each range.
-        IntelHexToFlash listener = new IntelHexToFlash(rangeDetector.getMemoryRegions(),
-            selectedBoard.flash);
-        intelhexParser.setDataListener(listener);
-        intelhexParser.parse();
-
-        FlashBuilder flashBuilder = listener.getFlashBuilder();
-        flashBuilder.program(chipErase, progressUpdate, true, fastProgram);
-      } catch (FileNotFoundException e) {
-        LOGGER.log(Level.SEVERE, "File not found: " + file);
-        return ErrorCode.FILE_NOT_FOUND;
-      } catch (IOException e) {
-        LOGGER.log(Level.SEVERE,
-            "IOException while trying program using IntelHex. Exception: " + e.toString());
-        return ErrorCode.CORRUPT_HEX_FILE;
-      } catch (IntelHexException e) {
-        LOGGER.log(Level.SEVERE,
-            "IntelHexException while trying to parse IntelHex. Exception: " + e.toString());
-        return ErrorCode.CORRUPT_HEX_FILE;
-      } catch (InterruptedException e) {
-        LOGGER.log(Level.WARNING,
-            "InterruptedException while trying to parse IntelHex. Exception: " + e.toString());
-        return ErrorCode.CORRUPT_HEX_FILE;
-      } catch (Error e) {
-        LOGGER.log(Level.SEVERE, "Error. Exception caught: " + e.getMessage());
-        return ErrorCode.COMMUNICATION_FAILURE;
-      } catch (TimeoutException e) {
-        LOGGER.log(Level.SEVERE, "Timeout exception on program. Exception: " + e.toString());
-        return ErrorCode.COMMUNICATION_FAILURE;
-      } finally {
+      // Intel Hex format.
+      else if (format.equals(".hex")) {
+        FileInputStream is = null;
         try {
-          is.close();
+          // Create input stream of some IntelHex data.
+          is = new FileInputStream(new File(file));
+
+          // Create IntelHexParserObject.
+          Parser intelhexParser = new Parser(is);
+
+          // Collect the data straight into the flash builder, in a single pass.
+          IntelHexToFlash listener = new IntelHexToFlash(selectedBoard.flash);
+          intelhexParser.setDataListener(listener);
+          intelhexParser.parse();
+
+          FlashBuilder flashBuilder = listener.getFlashBuilder();
+          flashBuilder.program(chipErase, progressUpdate, true, fastProgram);
+        } catch (FileNotFoundException e) {
+          LOGGER.log(Level.SEVERE, "File not found: " + file);
+          return ErrorCode.FILE_NOT_FOUND;
         } catch (IOException e) {
-          LOGGER.log(Level.FINE, "Couldn't close the file: " + file);
+          LOGGER.log(Level.SEVERE,
+              "IOException while trying program using IntelHex. Exception: " + e.toString());
+          return ErrorCode.CORRUPT_HEX_FILE;
+        } catch (IntelHexException e) {
+          LOGGER.log(Level.SEVERE,
+              "IntelHexException while trying to parse IntelHex. Exception: " + e.toString());
+          return ErrorCode.CORRUPT_HEX_FILE;
+        } catch (InterruptedException e) {
+          LOGGER.log(Level.WARNING,
+              "InterruptedException while trying to parse IntelHex. Exception: " + e.toString());
+          return ErrorCode.CORRUPT_HEX_FILE;
+        } catch (Error e) {
+          LOGGER.log(Level.SEVERE, "Error. Exception caught: " + e.getMessage());
+          return ErrorCode.COMMUNICATION_FAILURE;
+        } catch (TimeoutException e) {
+          LOGGER.log(Level.SEVERE, "Timeout exception on program. Exception: " + e.toString());
+          return ErrorCode.COMMUNICATION_FAILURE;
+        } finally {
+          try {
+            if (is != null) {
+              is.close();
+            }
+          } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Couldn't close the file: " + file);
+          }
         }
       }
-    }
 
-    selectedBoard.uninit(true);
-    return ErrorCode.SUCCESS;
+      return ErrorCode.SUCCESS;
+    } finally {
+      selectedBoard.uninit(true);
+    }
   }
-}
\ No newline at end of file
+}
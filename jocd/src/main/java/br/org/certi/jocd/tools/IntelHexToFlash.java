@@ -17,69 +17,66 @@ package br.org.certi.jocd.tools;
 
 import br.org.certi.jocd.flash.Flash;
 import br.org.certi.jocd.flash.FlashBuilder;
+import br.org.certi.jocd.flash.PageInfo;
 import cz.jaybee.intelhex.DataListener;
-import cz.jaybee.intelhex.MemoryRegions;
-import cz.jaybee.intelhex.Region;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
 
+/*
+ * Collect the data of an IntelHex file in a single pass.
+ *
+ * Records are placed in chunks of contiguous data that never cross a flash page, indexed by
+ * their start address. Only the pages touched by the file are allocated, so sparse files don't
+ * cost memory for the gaps between their regions.
+ */
 public class IntelHexToFlash implements DataListener {
 
-  // Logging
-  private final static String CLASS_NAME = IntelHexToFlash.class.getName();
-  private final static Logger LOGGER = Logger.getLogger(CLASS_NAME);
+  // Chunk size used for data outside of the flash regions.
+  private static final int DEFAULT_CHUNK_SIZE = 1024;
 
-  private final MemoryRegions detectedRegions;
+  private final Flash flash;
   private final FlashBuilder flashBuilder;
 
-  // List to hold each region, and inside each, store respective the data.
-  private byte[][] buffer;
+  // Chunks of data sorted by their start address.
+  private final TreeMap<Long, Chunk> chunks = new TreeMap<Long, Chunk>();
 
-  public IntelHexToFlash(MemoryRegions detectedRegions, Flash flash) {
-    this.flashBuilder = flash.getFlashBuilder();
-    this.detectedRegions = detectedRegions;
+  // Page of the last record. Records are usually sequential, so this saves a page lookup.
+  private long pageStart = 0;
+  private long pageEnd = 0;
 
-    buffer = new byte[detectedRegions.size()][];
-    // Initialize the buffer for each memory region.
-    for (int i = 0; i < detectedRegions.size(); i++) {
-      buffer[i] = new byte[(int) detectedRegions.get(i).getLength()];
-    }
+  public IntelHexToFlash(Flash flash) {
+    this(flash, flash.getFlashBuilder());
+  }
+
+  public IntelHexToFlash(Flash flash, FlashBuilder flashBuilder) {
+    this.flash = flash;
+    this.flashBuilder = flashBuilder;
   }
 
   @Override
   public void data(long address, byte[] data) {
-    // Add data in each detected region.
-    for (int i = 0; i < detectedRegions.size(); i++) {
-      Region region = detectedRegions.get(i);
-
-      // Check if these data belongs to this region.
-      if ((address >= region.getAddressStart()) && (address <= region.getAddressEnd())) {
-        int length = data.length;
-
-        // Make sure it doesn't overlap the region.
-        if ((address + length) > region.getAddressEnd()) {
-          length = (int) (region.getAddressEnd() - address + 1);
-        }
-
-        // Copy the data to the respective buffer.
-        int offset = (int) (address - region.getAddressStart());
-        System.arraycopy(data, 0, buffer[i], offset, length);
-        return;
+    int pos = 0;
+    while (pos < data.length) {
+      long current = address + pos;
+      if (current < pageStart || current >= pageEnd) {
+        selectPage(current);
       }
-    }
 
-    // We should never get here since each data will have it own region to be included and will
-    // return after be copied.
-    LOGGER.log(Level.SEVERE, "Unexpected out of range data.");
-    throw new InternalError("Unexpected out of range data.");
+      // Split the record at page boundaries.
+      int amount = (int) Math.min(data.length - pos, pageEnd - current);
+      put(current, data, pos, amount);
+      pos += amount;
+    }
   }
 
   @Override
   public void eof() {
-    // Add this data range to Flash Builder.
-    for (int i = 0; i < detectedRegions.size(); i++) {
-      flashBuilder.addData(detectedRegions.get(i).getAddressStart(), buffer[i]);
+    // Chunks are added in address order and without copying.
+    for (Chunk chunk : chunks.values()) {
+      flashBuilder.addData(chunk.address, ByteBuffer.wrap(chunk.data, 0, chunk.length));
     }
+    chunks.clear();
   }
 
   /*
@@ -89,4 +86,61 @@ public class IntelHexToFlash implements DataListener {
   public FlashBuilder getFlashBuilder() {
     return flashBuilder;
   }
-}
\ No newline at end of file
+
+  private void selectPage(long address) {
+    PageInfo info = flash.getPageInfo(address);
+    int size = (info == null) ? DEFAULT_CHUNK_SIZE : info.size;
+    pageStart = address - (address % size);
+    pageEnd = pageStart + size;
+  }
+
+  /*
+   * Store data in the current page. It must not cross the page end.
+   */
+  private void put(long address, byte[] data, int offset, int length) {
+    // Extend the chunk that contains or ends right at this address, if any.
+    Chunk chunk;
+    Map.Entry<Long, Chunk> entry = chunks.floorEntry(address);
+    if (entry != null && entry.getKey() >= pageStart && entry.getValue().end() >= address) {
+      chunk = entry.getValue();
+    } else {
+      chunk = new Chunk(address, (int) (pageEnd - address));
+      chunks.put(address, chunk);
+    }
+    chunk.write(address, data, offset, length);
+
+    // Merge the following chunks of this page that are now contiguous.
+    Map.Entry<Long, Chunk> next = chunks.higherEntry(chunk.address);
+    while (next != null && next.getKey() < pageEnd && next.getKey() <= chunk.end()) {
+      Chunk other = next.getValue();
+      if (other.end() > chunk.end()) {
+        int skip = (int) (chunk.end() - other.address);
+        chunk.write(chunk.end(), other.data, skip, other.length - skip);
+      }
+      chunks.remove(other.address);
+      next = chunks.higherEntry(chunk.address);
+    }
+  }
+
+  private static class Chunk {
+
+    final long address;
+    final byte[] data;
+    int length = 0;
+
+    Chunk(long address, int capacity) {
+      this.address = address;
+      this.data = new byte[capacity];
+    }
+
+    long end() {
+      return address + length;
+    }
+
+    void write(long address, byte[] src, int offset, int length) {
+      int start = (int) (address - this.address);
+      System.arraycopy(src, offset, this.data, start, length);
+      this.length = Math.max(this.length, start + length);
+    }
+  }
+}
@@ -15,37 +15,86 @@
  */
 package br.org.certi.jocd.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.logging.Logger;
 
 public class Conversion {
 
   /*
    * Convert a list of bytes to a list of 32-bit integers (little endian)
+   * Trailing bytes that don't make a full word are ignored.
    */
   public static long[] byteListToU32leList(byte[] data) {
-    long[] res = new long[0];
-    for (int i = 0; i < (data.length / 4); i++) {
-      long word = 0;
-      word |= 0x000000FFL & (data[0 + i * 4] << 0);
-      word |= 0x0000FF00L & (data[1 + i * 4] << 8);
-      word |= 0x00FF0000L & (data[2 + i * 4] << 16);
-      word |= 0xFF000000L & (data[3 + i * 4] << 24);
-      res = Util.appendDataInArray(res, word);
+    IntBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    long[] res = new long[words.remaining()];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = words.get(i) & 0xFFFFFFFFL;
     }
     return res;
   }
 
+  /*
+   * Convert a list of bytes to a list of 32-bit integers (little endian)
+   * Trailing bytes that don't make a full word are ignored.
+   */
+  public static int[] byteListToU32leIntList(byte[] data) {
+    int[] res = new int[data.length / 4];
+    byteListToU32leList(data, 0, res, 0, res.length);
+    return res;
+  }
+
+  /*
+   * Convert count little endian words from src (starting at srcOffset)
+   * into dst (starting at dstOffset).
+   */
+  public static void byteListToU32leList(byte[] src, int srcOffset, int[] dst, int dstOffset,
+      int count) {
+    ByteBuffer.wrap(src, srcOffset, count * 4).slice().order(ByteOrder.LITTLE_ENDIAN)
+        .asIntBuffer().get(dst, dstOffset, count);
+  }
+
   /*
    * Convert a word array into a byte array
    */
   public static byte[] u32leListToByteList(long[] words) {
     byte[] res = new byte[4 * words.length];
+    IntBuffer buffer = ByteBuffer.wrap(res).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    for (int i = 0; i < words.length; i++) {
+      buffer.put(i, (int) words[i]);
+    }
+    return res;
+  }
+
+  /*
+   * Convert count words from src (starting at srcOffset) into little endian
+   * bytes in dst (starting at dstOffset).
+   */
+  public static void u32leListToByteList(int[] src, int srcOffset, byte[] dst, int dstOffset,
+      int count) {
+    ByteBuffer.wrap(dst, dstOffset, count * 4).slice().order(ByteOrder.LITTLE_ENDIAN)
+        .asIntBuffer().put(src, srcOffset, count);
+  }
+
+  /*
+   * Convert an array of 32-bit words stored as long into an int array.
+   */
+  public static int[] toIntArray(long[] words) {
+    int[] res = new int[words.length];
+    for (int i = 0; i < words.length; i++) {
+      res[i] = (int) words[i];
+    }
+    return res;
+  }
+
+  /*
+   * Convert an int array into an array of unsigned 32-bit words stored as long.
+   */
+  public static long[] toU32Array(int[] words) {
+    long[] res = new long[words.length];
     for (int i = 0; i < words.length; i++) {
-      long word = words[i];
-      res[i * 4 + 0] = (byte) ((word >> 0) & 0xFF);
-      res[i * 4 + 1] = (byte) ((word >> 8) & 0xFF);
-      res[i * 4 + 2] = (byte) ((word >> 16) & 0xFF);
-      res[i * 4 + 3] = (byte) ((word >> 24) & 0xFF);
+      res[i] = words[i] & 0xFFFFFFFFL;
     }
     return res;
   }
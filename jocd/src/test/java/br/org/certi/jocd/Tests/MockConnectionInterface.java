@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import br.org.certi.jocd.dapaccess.connectioninterface.ConnectionInterface;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Loopback connection: every packet written is returned by read().
+ * It also keeps track of the maximum number of packets written
+ * and not read yet.
+ */
+public class MockConnectionInterface implements ConnectionInterface {
+
+  private final LinkedBlockingQueue<byte[]> packets = new LinkedBlockingQueue<byte[]>();
+  private final List<ConnectionInterface> devices = new ArrayList<ConnectionInterface>();
+  private int outstanding = 0;
+  private int maxOutstanding = 0;
+  private int packetCount = 1;
+
+  public List<ConnectionInterface> getDevices() {
+    return devices;
+  }
+
+  public synchronized int getMaxOutstanding() {
+    return maxOutstanding;
+  }
+
+  @Override
+  public List<ConnectionInterface> getAllConnectedDevices() {
+    return new ArrayList<ConnectionInterface>(devices);
+  }
+
+  @Override
+  public int getVendorId() {
+    return 0;
+  }
+
+  @Override
+  public int getProductId() {
+    return 0;
+  }
+
+  @Override
+  public String getDeviceName() {
+    return "mock";
+  }
+
+  @Override
+  public String getProductName() {
+    return "mock CMSIS-DAP";
+  }
+
+  @Override
+  public String getManufacturerName() {
+    return "mock";
+  }
+
+  @Override
+  public String getSerialNumber() {
+    return "0000";
+  }
+
+  @Override
+  public byte[] read() throws TimeoutException {
+    byte[] packet;
+    try {
+      packet = packets.poll(200, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new TimeoutException();
+    }
+    if (packet == null) {
+      throw new TimeoutException();
+    }
+    synchronized (this) {
+      outstanding--;
+    }
+    return packet;
+  }
+
+  @Override
+  public void write(byte[] data) {
+    synchronized (this) {
+      outstanding++;
+      maxOutstanding = Math.max(maxOutstanding, outstanding);
+    }
+    packets.add(data.clone());
+  }
+
+  @Override
+  public void open() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public void setPacketCount(int packetCount) {
+    this.packetCount = packetCount;
+  }
+
+  @Override
+  public void setPacketSize(int packetSize) {
+  }
+
+  @Override
+  public int getPacketCount() {
+    return packetCount;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
+import br.org.certi.jocd.dapaccess.Transfer;
+import br.org.certi.jocd.dapaccess.dapexceptions.Error;
+import br.org.certi.jocd.dapaccess.dapexceptions.TransferMismatchError;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/*
+ * Link that doesn't talk to any probe.
+ * Register writes are recorded, and register reads return the words
+ * queued in readValues, in order. Value match reads succeed unless
+ * false is queued in matchResults, then the next flush throws.
+ */
+public class MockDapLink extends DapAccessCmsisDap {
+
+  public final List<long[]> writes = new ArrayList<long[]>();
+  public final List<Long> reads = new ArrayList<Long>();
+  public final Queue<Integer> readValues = new LinkedList<Integer>();
+  public final List<long[]> matches = new ArrayList<long[]>();
+  public final Queue<Boolean> matchResults = new LinkedList<Boolean>();
+  public int flushes = 0;
+  public boolean closed = false;
+  private boolean mismatch = false;
+
+  public MockDapLink() {
+    super("0000");
+  }
+
+  public MockDapLink(String uniqueId) {
+    super(uniqueId);
+  }
+
+  @Override
+  public void writeReg(long regId, long value) {
+    writes.add(new long[]{regId, value});
+  }
+
+  @Override
+  public void regWriteRepeat(int numRepeats, long regId, int[] dataArray, int offset,
+      Byte dapIndex) {
+    for (int i = 0; i < numRepeats; i++) {
+      writes.add(new long[]{regId, dataArray[offset + i]});
+    }
+  }
+
+  @Override
+  public Transfer readReg(long regId) throws Error {
+    reads.add(regId);
+    Transfer transfer = new Transfer(this, (byte) 0, 1, READ, null);
+    Integer value = readValues.poll();
+    ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(value == null ? 0 : value).flip();
+    transfer.addResponse(buffer);
+    return transfer;
+  }
+
+  @Override
+  public Transfer regReadRepeatLater(int numRepeats, long regId, int[] dst, int offset,
+      Byte dapIndex) throws Error {
+    Transfer transfer = new Transfer(this, (byte) 0, numRepeats, READ, dst, offset);
+    ByteBuffer buffer = ByteBuffer.allocate(4 * numRepeats).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < numRepeats; i++) {
+      reads.add(regId);
+      Integer value = readValues.poll();
+      buffer.putInt(value == null ? 0 : value);
+    }
+    buffer.flip();
+    transfer.addResponse(buffer);
+    return transfer;
+  }
+
+  @Override
+  public void regReadMatch(long regId, long expected, long mask, byte dapIndex) {
+    matches.add(new long[]{regId, expected, mask});
+    Boolean result = matchResults.poll();
+    if (result != null && !result) {
+      mismatch = true;
+    }
+  }
+
+  @Override
+  public void flush() throws TransferMismatchError {
+    flushes++;
+    if (mismatch) {
+      mismatch = false;
+      throw new TransferMismatchError();
+    }
+  }
+
+  @Override
+  public void disconnect() {
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.core.Target;
+import br.org.certi.jocd.coresight.CortexM;
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.MemAp;
+import br.org.certi.jocd.dapaccess.Batch;
+import br.org.certi.jocd.dapaccess.dapexceptions.Error;
+import br.org.certi.jocd.flash.Flash;
+import br.org.certi.jocd.flash.FlashAlgo;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestAlgoResidency {
+
+  /*
+   * Target with a Cortex-M core on a mock link and a sparse RAM, that counts the blocks written
+   * to it. Functions complete right away.
+   */
+  private static class CountingTarget extends Target {
+
+    final CortexM core;
+    final Map<Long, Long> ram = new HashMap<Long, Long>();
+    int downloads = 0;
+
+    CountingTarget(CortexM core) {
+      this.core = core;
+    }
+
+    @Override
+    public Target getSelectedCore() {
+      return core;
+    }
+
+    @Override
+    public Batch batch() throws Error {
+      return core.batch();
+    }
+
+    @Override
+    public void halt() throws TimeoutException, Error {
+      core.halt();
+    }
+
+    @Override
+    public void setTargetState(State state) throws InterruptedException, TimeoutException, Error {
+      core.setTargetState(state);
+    }
+
+    @Override
+    public void writeBlockMemoryAligned32(long address, long[] words) {
+      downloads++;
+      for (int i = 0; i < words.length; i++) {
+        ram.put(address + i * 4, words[i]);
+      }
+    }
+
+    @Override
+    public long[] readMemoryGather(long[] addresses, int[] transferSizes) {
+      long[] words = new long[addresses.length];
+      for (int i = 0; i < addresses.length; i++) {
+        Long word = ram.get(addresses[i]);
+        words[i] = (word == null) ? 0 : word;
+      }
+      return words;
+    }
+
+    @Override
+    public boolean waitUntilStopped() {
+      return true;
+    }
+
+    @Override
+    public long readCoreRegister(CoreRegister reg) {
+      return 0;
+    }
+  }
+
+  private MockDapLink link;
+  private CortexM core;
+  private CountingTarget target;
+  private Flash flash;
+
+  @Before
+  public void setUp() {
+    link = new MockDapLink();
+    DebugPort dp = new DebugPort(link);
+    core = new CortexM(dp, new MemAp(dp, 0));
+    core.setup(link);
+    target = new CountingTarget(core);
+
+    FlashAlgo algo = new FlashAlgo();
+    algo.loadAddress = 0x20000000L;
+    algo.instructions = new long[]{0xE00ABE00L, 0x12345678L};
+    algo.pcInit = 0x20000001L;
+    algo.beginData = 0x20002000L;
+    algo.beginStack = 0x20001000L;
+    algo.staticBase = 0x20000100L;
+    algo.analyzerSupported = true;
+    algo.analyzerAddress = 0x20003000L;
+    flash = new Flash();
+    flash.setup(target, algo);
+  }
+
+  @Test
+  public void testDownloadedOnce() throws Exception {
+    assertFalse(flash.isAlgoResident());
+    flash.init();
+    // The algorithm and the analyzer.
+    assertEquals(2, target.downloads);
+    assertTrue(flash.isAlgoResident());
+
+    // Calling the algorithm and resetting into it keep it.
+    flash.startErasePage(0x400);
+    flash.init();
+    assertEquals(2, target.downloads);
+  }
+
+  @Test
+  public void testDownloadedAfterResume() throws Exception {
+    flash.init();
+    link.readValues.add((int) CortexM.S_HALT);
+    core.resume();
+    assertFalse(flash.isAlgoResident());
+
+    flash.init();
+    assertEquals(4, target.downloads);
+  }
+
+  @Test
+  public void testDownloadedAfterReset() throws Exception {
+    flash.init();
+    core.reset(true);
+    assertFalse(flash.isAlgoResident());
+
+    flash.init();
+    assertEquals(4, target.downloads);
+  }
+
+  @Test
+  public void testDownloadedAfterRamChange() throws Exception {
+    flash.init();
+    // Something wrote over the end of the algorithm.
+    target.ram.put(0x20000004L, 0L);
+
+    flash.init();
+    assertEquals(4, target.downloads);
+    assertEquals(0x12345678L, (long) target.ram.get(0x20000004L));
+  }
+}
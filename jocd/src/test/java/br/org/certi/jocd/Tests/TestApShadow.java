@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import br.org.certi.jocd.core.PendingRead;
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.MemAp;
+import br.org.certi.jocd.dapaccess.Transfer;
+import br.org.certi.jocd.dapaccess.dapexceptions.Error;
+import java.util.concurrent.TimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestApShadow {
+
+  private MockDapLink link;
+  private DebugPort dp;
+  private MemAp ap;
+
+  @Before
+  public void setUp() {
+    link = new MockDapLink();
+    dp = new DebugPort(link);
+    ap = new MemAp(dp, 0);
+    dp.setAutoIncrementPageSize(0, 0x400);
+  }
+
+  @Test
+  public void testSequentialWritesSkipTar() throws Exception {
+    // SELECT, CSW, TAR and DRW.
+    ap.writeMemory(0x20000000L, 1);
+    assertEquals(4, link.writes.size());
+
+    // Only DRW, TAR was incremented by the previous access.
+    link.writes.clear();
+    ap.writeMemory(0x20000004L, 2);
+    assertEquals(1, link.writes.size());
+
+    // A different address needs TAR again.
+    link.writes.clear();
+    ap.writeMemory(0x20000000L, 3);
+    assertEquals(2, link.writes.size());
+  }
+
+  @Test
+  public void testShadowSurvivesFlush() throws Exception {
+    ap.writeMemory(0x20000000L, 1);
+    dp.flush();
+    link.writes.clear();
+    ap.writeMemory(0x20000004L, 2);
+    assertEquals(1, link.writes.size());
+  }
+
+  @Test
+  public void testPageWrap() throws Exception {
+    ap.writeMemory(0x200003FCL, 1);
+    link.writes.clear();
+    // TAR is unknown after leaving the auto increment page.
+    ap.writeMemory(0x20000400L, 2);
+    assertEquals(2, link.writes.size());
+  }
+
+  @Test
+  public void testBlockChunks() throws Exception {
+    ap.writeBlock32(0x20000000L, new int[8], 0, 8);
+    link.writes.clear();
+    // Next chunk starts where the previous one ended.
+    ap.writeBlock32(0x20000020L, new int[8], 0, 8);
+    assertEquals(8, link.writes.size());
+  }
+
+  @Test
+  public void testErrorDropsShadow() throws Exception {
+    ap.writeMemory(0x20000000L, 1);
+    dp.handleError(new Error("test"), 0);
+    link.writes.clear();
+    // SELECT, CSW, TAR and DRW again.
+    ap.writeMemory(0x20000004L, 2);
+    assertEquals(4, link.writes.size());
+  }
+
+  @Test
+  public void testTimeoutDropsShadow() throws Exception {
+    link = new MockDapLink() {
+      @Override
+      public long readRegAsync(Transfer transfer) throws TimeoutException {
+        throw new TimeoutException("test");
+      }
+    };
+    dp = new DebugPort(link);
+    ap = new MemAp(dp, 0);
+    dp.setAutoIncrementPageSize(0, 0x400);
+
+    PendingRead read = ap.readMemoryLater(0x20000000L, 32);
+    try {
+      read.get();
+      fail("Expected a TimeoutException");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+    link.writes.clear();
+    // SELECT, CSW, TAR and DRW again.
+    ap.writeMemory(0x20000004L, 2);
+    assertEquals(4, link.writes.size());
+  }
+}
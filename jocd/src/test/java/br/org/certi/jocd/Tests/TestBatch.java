@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.dapaccess.Batch;
+import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
+import br.org.certi.jocd.dapaccess.dapexceptions.Error;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+public class TestBatch {
+
+  /*
+   * Batch that records its flushes instead of talking to the probe.
+   */
+  private static class RecordingBatch extends Batch {
+
+    private final List<String> events;
+
+    RecordingBatch(DapAccessCmsisDap link, List<String> events) {
+      super(link);
+      this.events = events;
+    }
+
+    @Override
+    protected void flush() {
+      events.add("flush");
+    }
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void testNestedBatchFlushesOnce() throws Exception {
+    DapAccessCmsisDap link = new DapAccessCmsisDap("0000");
+    List<String> events = new ArrayList<String>();
+
+    assertFalse(link.inBatch());
+    try (Batch outer = new RecordingBatch(link, events)) {
+      try (Batch inner = new RecordingBatch(link, events)) {
+        assertTrue(link.inBatch());
+      }
+      // Closing the inner batch doesn't flush.
+      assertTrue(link.inBatch());
+      assertEquals(0, events.size());
+    }
+    assertFalse(link.inBatch());
+    assertEquals(1, events.size());
+  }
+
+  @Test
+  public void testCloseTwice() throws Exception {
+    DapAccessCmsisDap link = new DapAccessCmsisDap("0000");
+    List<String> events = new ArrayList<String>();
+
+    Batch outer = new RecordingBatch(link, events);
+    Batch inner = new RecordingBatch(link, events);
+    inner.close();
+    inner.close();
+    assertTrue(link.inBatch());
+    outer.close();
+    assertFalse(link.inBatch());
+    assertEquals(1, events.size());
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void testChecksRunAfterFlush() throws Exception {
+    DapAccessCmsisDap link = new DapAccessCmsisDap("0000");
+    final List<String> events = new ArrayList<String>();
+    Batch.Check check = new Batch.Check() {
+      @Override
+      public void verify() throws TimeoutException, Error {
+        events.add("check");
+      }
+    };
+
+    // Outside of a batch the check runs right away.
+    link.addBatchCheck(check);
+    assertEquals(1, events.size());
+    events.clear();
+
+    try (Batch batch = new RecordingBatch(link, events)) {
+      link.addBatchCheck(check);
+      assertEquals(0, events.size());
+    }
+    assertEquals(2, events.size());
+    assertEquals("flush", events.get(0));
+    assertEquals("check", events.get(1));
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.tools.BinaryImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class TestBinaryImage {
+
+  @Test
+  public void testMappedContents() throws IOException {
+    byte[] expected = new byte[3000];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = (byte) (i * 7);
+    }
+
+    File file = File.createTempFile("jocd", ".bin");
+    file.deleteOnExit();
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      os.write(expected);
+    } finally {
+      os.close();
+    }
+
+    BinaryImage image = BinaryImage.open(file);
+    try {
+      assertEquals(expected.length, image.size());
+
+      ByteBuffer data = image.getData();
+      assertTrue(data.isReadOnly());
+      assertEquals(0, data.position());
+      assertEquals(expected.length, data.remaining());
+
+      byte[] actual = new byte[data.remaining()];
+      data.get(actual);
+      assertArrayEquals(expected, actual);
+
+      // Each call returns an independent view.
+      assertEquals(0, image.getData().position());
+    } finally {
+      image.close();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.MemAp;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBlockRead {
+
+  private MockDapLink link;
+  private MemAp ap;
+
+  @Before
+  public void setUp() {
+    link = new MockDapLink();
+    DebugPort dp = new DebugPort(link);
+    ap = new MemAp(dp, 0);
+    dp.setAutoIncrementPageSize(0, 0x400);
+  }
+
+  @Test
+  public void testUnalignedEdges() throws Exception {
+    // Memory holds its own address offset in each byte. Reads come back in
+    // the order they are queued: 8-bit head, 16-bit head, words, 16-bit tail, 8-bit tail.
+    link.readValues.add(0x03020100);
+    link.readValues.add(0x03020100);
+    link.readValues.add(0x07060504);
+    link.readValues.add(0x0B0A0908);
+    link.readValues.add(0x0B0A0908);
+
+    byte[] dst = new byte[12];
+    ap.readBlockMemoryUnaligned8(0x20000001L, dst, 1, 10);
+    assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 0}, dst);
+  }
+
+  @Test
+  public void testAlignedAcrossPage() throws Exception {
+    for (int i = 0; i < 4; i++) {
+      link.readValues.add(0x100 + i);
+    }
+
+    int[] dst = new int[5];
+    ap.readBlockMemoryAligned32(0x200003F8L, dst, 1, 4);
+    assertArrayEquals(new int[]{0, 0x100, 0x101, 0x102, 0x103}, dst);
+
+    // One TAR write per auto increment page.
+    int tarWrites = 0;
+    for (long[] write : link.writes) {
+      if (write[0] == DebugPort.apAddrToReg(DebugPort.AP_REG.TAR.getValue())) {
+        tarWrites++;
+      }
+    }
+    assertEquals(2, tarWrites);
+  }
+}
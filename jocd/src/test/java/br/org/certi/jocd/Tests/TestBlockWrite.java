@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.DebugPort.AP_REG;
+import br.org.certi.jocd.coresight.MemAp;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBlockWrite {
+
+  private MockDapLink link;
+  private MemAp ap;
+
+  @Before
+  public void setUp() {
+    link = new MockDapLink();
+    DebugPort dp = new DebugPort(link);
+    ap = new MemAp(dp, 0);
+    dp.setAutoIncrementPageSize(0, 0x400);
+  }
+
+  /*
+   * Values written to a given AP register, in order.
+   */
+  private List<Long> writesTo(AP_REG reg) {
+    List<Long> values = new ArrayList<Long>();
+    for (long[] write : link.writes) {
+      if (write[0] == DebugPort.apAddrToReg(reg.getValue())) {
+        values.add(write[1]);
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void testChunksFlushedOnce() throws Exception {
+    int[] words = new int[0x200];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = i;
+    }
+
+    // 0x100 words starting at 0x20000200 cross one auto increment page.
+    ap.writeBlockMemoryAligned32(0x20000200L, words, 0x80, 0x100);
+
+    assertEquals(1, link.flushes);
+    List<Long> tar = writesTo(AP_REG.TAR);
+    assertEquals(2, tar.size());
+    assertEquals(0x20000200L, (long) tar.get(0));
+    assertEquals(0x20000400L, (long) tar.get(1));
+    List<Long> drw = writesTo(AP_REG.DRW);
+    assertEquals(0x100, drw.size());
+    for (int i = 0; i < drw.size(); i++) {
+      assertEquals(0x80 + i, (long) drw.get(i));
+    }
+  }
+
+  @Test
+  public void testUnalignedEdges() throws Exception {
+    byte[] data = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 0};
+    ap.writeBlockMemoryUnaligned8(0x20000001L, data, 1, 10);
+
+    assertEquals(1, link.flushes);
+    List<Long> drw = writesTo(AP_REG.DRW);
+    assertEquals(5, drw.size());
+    // Bytes and halfwords are written on their lane.
+    assertEquals(0x00000100L, (long) drw.get(0));
+    assertEquals(0x03020000L, (long) drw.get(1));
+    assertEquals(0x07060504L, (long) drw.get(2));
+    assertEquals(0x00000908L, (long) drw.get(3));
+    assertEquals(0x000A0000L, (long) drw.get(4));
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.dapaccess.Command;
+import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class TestCommand {
+
+  private static final byte AP_DRW_WRITE = DapAccessCmsisDap.AP_ACC | DapAccessCmsisDap.WRITE
+      | 0x0C;
+  private static final byte AP_DRW_READ = DapAccessCmsisDap.AP_ACC | DapAccessCmsisDap.READ
+      | 0x0C;
+
+  @Test
+  public void testBlockWriteFromOffset() throws Exception {
+    Command command = new Command(64);
+    long[] words = new long[]{0xDEADBEEFL, 0x11223344L, 0x55667788L};
+    command.add(2, AP_DRW_WRITE, words, 1, (byte) 0);
+
+    // The caller may reuse its array right after add().
+    words[1] = 0;
+    words[2] = 0;
+
+    byte[] packet = command.encodeData();
+    assertEquals(64, packet.length);
+    assertArrayEquals(new byte[]{0x06, 0x00, 0x02, 0x00, AP_DRW_WRITE,
+            0x44, 0x33, 0x22, 0x11, (byte) 0x88, 0x77, 0x66, 0x55, 0x00},
+        Arrays.copyOf(packet, 14));
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    Command command = new Command(64);
+    command.add(1, AP_DRW_WRITE, new long[]{0xFFFFFFFFL}, (byte) 0);
+    byte[] first = command.encodeData();
+
+    command.reset();
+    assertTrue(command.getEmpty());
+    command.add(3, AP_DRW_READ, null, (byte) 0);
+    byte[] second = command.encodeData();
+
+    // Same packet buffer, no stale data from the previous packet.
+    assertSame(first, second);
+    assertArrayEquals(new byte[]{0x06, 0x00, 0x03, 0x00, AP_DRW_READ, 0x00, 0x00, 0x00, 0x00},
+        Arrays.copyOf(second, 9));
+
+    ByteBuffer response = ByteBuffer.allocate(64);
+    command.decodeData(new byte[]{0x06, 0x03, 0x00, 0x01, 1, 0, 0, 0, 2, 0, 0, 0, 3, 0, 0, 0},
+        response);
+    assertEquals(12, response.position());
+  }
+}
@@ -63,4 +63,42 @@ public class TestConversion {
 
     assertArrayEquals(Conversion.u32leListToByteList(words), expected);
   }
+
+  @Test
+  public void testIntArrayRoundTrip() {
+    long[] words = new long[] {0x00000000L, 0x7FFFFFFFL, 0x80000000L, 0xFFFFFFFFL};
+    int[] expected = new int[] {0, Integer.MAX_VALUE, Integer.MIN_VALUE, -1};
+
+    assertArrayEquals(expected, Conversion.toIntArray(words));
+    assertArrayEquals(words, Conversion.toU32Array(expected));
+  }
+
+  @Test
+  public void testByteListToU32leListHighBytes() {
+    byte[] data = new byte[] {(byte) 0xFF, (byte) 0xFE, (byte) 0x80, (byte) 0xF0, 0x01};
+
+    // The trailing byte doesn't make a word and is ignored.
+    assertArrayEquals(new long[] {0xF080FEFFL}, Conversion.byteListToU32leList(data));
+    assertArrayEquals(new int[] {0xF080FEFF}, Conversion.byteListToU32leIntList(data));
+  }
+
+  @Test
+  public void testInPlaceConversion() {
+    byte[] data = new byte[12];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (0xA0 + i);
+    }
+
+    // Two words starting at byte 2, into the middle of the destination.
+    int[] words = new int[4];
+    Conversion.byteListToU32leList(data, 2, words, 1, 2);
+    assertArrayEquals(new int[] {0, 0xA5A4A3A2, 0xA9A8A7A6, 0}, words);
+
+    // And back.
+    byte[] bytes = new byte[10];
+    Conversion.u32leListToByteList(words, 1, bytes, 1, 2);
+    byte[] expected = new byte[10];
+    System.arraycopy(data, 2, expected, 1, 8);
+    assertArrayEquals(expected, bytes);
+  }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+
+import br.org.certi.jocd.coresight.CoreSnapshot;
+import br.org.certi.jocd.coresight.CortexM;
+import br.org.certi.jocd.coresight.CortexM.CortexMRegister;
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.DebugPort.AP_REG;
+import br.org.certi.jocd.coresight.MemAp;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCoreSnapshot {
+
+  private MockDapLink link;
+  private CortexM core;
+
+  @Before
+  public void setUp() {
+    link = new MockDapLink();
+    DebugPort dp = new DebugPort(link);
+    core = new CortexM(dp, new MemAp(dp, 0));
+    core.setup(link);
+  }
+
+  /*
+   * Queue the DHCSR read before each register and the register values (their number + 0x100),
+   * as the snapshot reads them without polling. The DHCSR read before the register at notReady
+   * doesn't have S_REGRDY set.
+   */
+  private void queueSnapshot(int notReady) {
+    int[] numbers = CoreSnapshot.getRegisterNumbers(false);
+    for (int i = 0; i < numbers.length; i++) {
+      long dhcsr = CortexM.S_HALT | (i == notReady ? 0 : CortexM.S_REGRDY);
+      link.readValues.add((int) dhcsr);
+      link.readValues.add(0x100 + numbers[i]);
+    }
+  }
+
+  /*
+   * Queue the register values and the final DHCSR, as the snapshot reads them when polling.
+   */
+  private void queuePolledSnapshot() {
+    for (int number : CoreSnapshot.getRegisterNumbers(false)) {
+      link.readValues.add(0x100 + number);
+    }
+    link.readValues.add((int) (CortexM.S_HALT | CortexM.S_REGRDY));
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    queueSnapshot(-1);
+    CoreSnapshot snapshot = core.readCoreSnapshot();
+
+    assertEquals(0x100, snapshot.get(CortexMRegister.R0));
+    assertEquals(0x10F, snapshot.get(CortexMRegister.PC));
+    assertEquals(0x112, snapshot.get(CortexMRegister.PSP));
+    // PRIMASK is the low byte of CFBP.
+    assertEquals(0x14, snapshot.get(CortexMRegister.PRIMASK));
+
+    // A DHCSR and a DCRDR read for each register through the banked registers, no polling.
+    int count = CoreSnapshot.getRegisterNumbers(false).length;
+    long bd0Reg = DebugPort.apAddrToReg(AP_REG.BD0.getValue());
+    long bd2Reg = DebugPort.apAddrToReg(AP_REG.BD2.getValue());
+    assertEquals(2 * count, link.reads.size());
+    assertEquals(bd0Reg, (long) link.reads.get(0));
+    assertEquals(bd2Reg, (long) link.reads.get(1));
+    assertEquals(0, link.matches.size());
+    assertEquals(1, link.flushes);
+
+    // The core is halted: the next snapshot and register reads come from the cache.
+    snapshot = core.readCoreSnapshot();
+    assertEquals(0x10F, snapshot.get(CortexMRegister.PC));
+    assertEquals(0x101, core.readCoreRegisterRaw(CortexMRegister.R1));
+    assertEquals(2 * count, link.reads.size());
+  }
+
+  @Test
+  public void testPollWhenNotReady() throws Exception {
+    queueSnapshot(0);
+    queuePolledSnapshot();
+    CoreSnapshot snapshot = core.readCoreSnapshot();
+
+    assertEquals(0x10E, snapshot.get(CortexMRegister.LR));
+    assertEquals(CoreSnapshot.getRegisterNumbers(false).length, link.matches.size());
+  }
+
+  @Test
+  public void testPollWhenNotReadyMidway() throws Exception {
+    // S_REGRDY is late only for a register in the middle of the list.
+    int[] numbers = CoreSnapshot.getRegisterNumbers(false);
+    queueSnapshot(numbers.length / 2);
+    queuePolledSnapshot();
+    CoreSnapshot snapshot = core.readCoreSnapshot();
+
+    // The values come from the polled snapshot.
+    assertEquals(CoreSnapshot.getRegisterNumbers(false).length, link.matches.size());
+    assertEquals(0x100, snapshot.get(CortexMRegister.R0));
+    assertEquals(0x10A, snapshot.get(CortexMRegister.R10));
+    assertEquals(0x112, snapshot.get(CortexMRegister.PSP));
+    assertEquals(3 * numbers.length + 1, link.reads.size());
+  }
+}
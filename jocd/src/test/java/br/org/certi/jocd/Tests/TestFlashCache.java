@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.flash.FlashCache;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFlashCache {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = File.createTempFile("jocd", "cache");
+    directory.delete();
+    directory.mkdir();
+  }
+
+  @After
+  public void tearDown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testSaveAndLoad() {
+    FlashCache cache = new FlashCache(directory, "1100ABCD");
+    assertNull(cache.getCrc(0x400));
+
+    cache.putCrc(0x0, 0xFFFFFFFFL);
+    cache.putCrc(0x400, 0x12345678L);
+    cache.putCrc(0x800, 0x0L);
+    cache.removeCrc(0x800);
+    cache.save();
+
+    FlashCache loaded = new FlashCache(directory, "1100ABCD");
+    assertEquals(Long.valueOf(0xFFFFFFFFL), loaded.getCrc(0x0));
+    assertEquals(Long.valueOf(0x12345678L), loaded.getCrc(0x400));
+    assertNull(loaded.getCrc(0x800));
+
+    // Each board has its own cache.
+    assertNull(new FlashCache(directory, "1100ABCE").getCrc(0x400));
+  }
+
+  @Test
+  public void testFileName() {
+    FlashCache cache = new FlashCache(directory, "../id:1");
+    cache.putCrc(0x0, 0x1L);
+    cache.save();
+
+    assertTrue(new File(directory, "___id_1.crc").exists());
+    assertEquals(1, directory.listFiles().length);
+  }
+
+  @Test
+  public void testCorruptFile() throws IOException {
+    FileWriter writer = new FileWriter(new File(directory, "1100ABCD.crc"));
+    writer.write("00000000 0000zz00\n");
+    writer.close();
+
+    assertNull(new FlashCache(directory, "1100ABCD").getCrc(0x0));
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import br.org.certi.jocd.core.Target;
+import br.org.certi.jocd.flash.Flash;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+public class TestFlashCompletion {
+
+  /*
+   * Target that stays running for a number of state reads.
+   */
+  private static class RunningTarget extends Target {
+
+    int runningPolls;
+    int polls = 0;
+
+    RunningTarget(int runningPolls) {
+      this.runningPolls = runningPolls;
+    }
+
+    @Override
+    public State getState() {
+      polls++;
+      return (polls <= runningPolls) ? State.TARGET_RUNNING : State.TARGET_HALTED;
+    }
+
+    @Override
+    public long readCoreRegister(CoreRegister reg) {
+      return 0x5A;
+    }
+  }
+
+  @Test
+  public void testFastCompletion() throws Exception {
+    RunningTarget target = new RunningTarget(3);
+    Flash flash = new Flash();
+    flash.setup(target, null);
+
+    long start = System.currentTimeMillis();
+    assertEquals(0x5A, flash.waitForCompletion(0.001));
+    assertEquals(4, target.polls);
+
+    // The first polls don't sleep.
+    assertTrue(System.currentTimeMillis() - start < 10);
+  }
+
+  @Test
+  public void testTimeoutFromWeight() throws Exception {
+    RunningTarget target = new RunningTarget(Integer.MAX_VALUE);
+    Flash flash = new Flash();
+    flash.setup(target, null);
+
+    long start = System.currentTimeMillis();
+    try {
+      flash.waitForCompletion(0.05);
+      fail("Expected a TimeoutException");
+    } catch (TimeoutException e) {
+      long elapsed = System.currentTimeMillis() - start;
+      // 10 times the expected 50 ms.
+      assertTrue("elapsed " + elapsed, elapsed >= 500 && elapsed < 2000);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import cz.jaybee.intelhex.DataListener;
+import cz.jaybee.intelhex.IntelHexException;
+import cz.jaybee.intelhex.Parser;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestIntelHexParser {
+
+  private static final String HEX_FILE = ":020000040001F9\r\n"
+      + ":0400100001020304E2\r\n"
+      + "\r\n"
+      + ":02001400AABB85\n"
+      + ":0400000500000131C5\n"
+      + ":00000001FF\n";
+
+  private static class Recorder implements DataListener {
+
+    final List<Long> addresses = new ArrayList<Long>();
+    final List<byte[]> blocks = new ArrayList<byte[]>();
+    boolean eof = false;
+
+    @Override
+    public void data(long address, byte[] data) {
+      addresses.add(address);
+      blocks.add(data);
+    }
+
+    @Override
+    public void eof() {
+      eof = true;
+    }
+  }
+
+  private static void check(Parser parser) throws Exception {
+    Recorder recorder = new Recorder();
+    parser.setDataListener(recorder);
+    parser.parse();
+
+    assertTrue(recorder.eof);
+    assertEquals(2, recorder.addresses.size());
+    assertEquals(0x10010L, (long) recorder.addresses.get(0));
+    assertArrayEquals(new byte[]{1, 2, 3, 4}, recorder.blocks.get(0));
+    assertEquals(0x10014L, (long) recorder.addresses.get(1));
+    assertArrayEquals(new byte[]{(byte) 0xAA, (byte) 0xBB}, recorder.blocks.get(1));
+    assertEquals(0x131L, parser.getStartAddress());
+  }
+
+  @Test
+  public void testInputStream() throws Exception {
+    check(new Parser(new ByteArrayInputStream(HEX_FILE.getBytes("US-ASCII"))));
+  }
+
+  @Test
+  public void testReader() throws Exception {
+    check(new Parser(new StringReader(HEX_FILE)));
+  }
+
+  @Test
+  public void testByteBuffer() throws Exception {
+    ByteBuffer source = ByteBuffer.wrap(HEX_FILE.getBytes("US-ASCII"));
+    check(new Parser(source));
+    assertEquals(0, source.position());
+  }
+
+  @Test
+  public void testLowerCaseDigits() throws Exception {
+    Parser parser = new Parser(new StringReader(":02001400aabb85\n:00000001ff\n"));
+    Recorder recorder = new Recorder();
+    parser.setDataListener(recorder);
+    parser.parse();
+
+    assertArrayEquals(new byte[]{(byte) 0xAA, (byte) 0xBB}, recorder.blocks.get(0));
+  }
+
+  private static void expectError(String file, String message) throws Exception {
+    try {
+      new Parser(new StringReader(file)).parse();
+      fail("Expected IntelHexException for " + file);
+    } catch (IntelHexException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    expectError(":02001400AABB86\n:00000001FF\n", "Invalid checksum");
+    expectError(":03001400AABB84\n:00000001FF\n", "Invalid record length");
+    expectError(":02001400AABX85\n:00000001FF\n", "Invalid Intel HEX record");
+    expectError(":02001400AABB8\n:00000001FF\n", "Invalid Intel HEX record");
+    expectError("02001400AABB85\n:00000001FF\n", "Invalid Intel HEX record");
+    expectError(":00000001FF\n:02001400AABB85\n", "Data after eof");
+    expectError(":02001400AABB85\n", "No eof");
+  }
+}
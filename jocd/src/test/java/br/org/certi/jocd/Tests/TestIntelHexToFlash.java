@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import br.org.certi.jocd.flash.Flash;
+import br.org.certi.jocd.flash.FlashBuilder;
+import br.org.certi.jocd.flash.PageInfo;
+import br.org.certi.jocd.tools.IntelHexToFlash;
+import cz.jaybee.intelhex.Parser;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestIntelHexToFlash {
+
+  private static final int PAGE_SIZE = 256;
+
+  private final List<Long> addresses = new ArrayList<Long>();
+  private final List<byte[]> blocks = new ArrayList<byte[]>();
+
+  private IntelHexToFlash createListener() {
+    Flash flash = new Flash() {
+      @Override
+      public PageInfo getPageInfo(long address) {
+        PageInfo info = new PageInfo();
+        info.size = PAGE_SIZE;
+        return info;
+      }
+    };
+    FlashBuilder flashBuilder = new FlashBuilder(flash, 0) {
+      @Override
+      public void addData(long address, ByteBuffer data) {
+        byte[] block = new byte[data.remaining()];
+        data.get(block);
+        addresses.add(address);
+        blocks.add(block);
+      }
+    };
+    return new IntelHexToFlash(flash, flashBuilder);
+  }
+
+  private static byte[] sequence(int start, int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (start + i);
+    }
+    return data;
+  }
+
+  @Test
+  public void testSplitAtPages() {
+    IntelHexToFlash listener = createListener();
+    listener.data(0xF0, sequence(0, 0x20));
+    listener.data(0x110, sequence(0x20, 0x10));
+    listener.eof();
+
+    assertEquals(2, addresses.size());
+    assertEquals(0xF0L, (long) addresses.get(0));
+    assertArrayEquals(sequence(0, 0x10), blocks.get(0));
+    assertEquals(0x100L, (long) addresses.get(1));
+    assertArrayEquals(sequence(0x10, 0x20), blocks.get(1));
+  }
+
+  @Test
+  public void testOutOfOrderAndGaps() {
+    IntelHexToFlash listener = createListener();
+    listener.data(0x20, sequence(0x20, 0x10));
+    listener.data(0x10000, sequence(0, 4));
+    listener.data(0x00, sequence(0x00, 0x10));
+    // Fill the gap between the two chunks of the first page.
+    listener.data(0x10, sequence(0x10, 0x10));
+    listener.eof();
+
+    assertEquals(2, addresses.size());
+    assertEquals(0x0L, (long) addresses.get(0));
+    assertArrayEquals(sequence(0, 0x30), blocks.get(0));
+    assertEquals(0x10000L, (long) addresses.get(1));
+    assertArrayEquals(sequence(0, 4), blocks.get(1));
+  }
+
+  @Test
+  public void testParseFile() throws Exception {
+    String hex = ":0400000001020304F2\n"
+        + ":0400040005060708DE\n"
+        + ":00000001FF\n";
+    IntelHexToFlash listener = createListener();
+    Parser parser = new Parser(new ByteArrayInputStream(hex.getBytes("US-ASCII")));
+    parser.setDataListener(listener);
+    parser.parse();
+
+    assertEquals(1, addresses.size());
+    assertEquals(0x0L, (long) addresses.get(0));
+    assertArrayEquals(sequence(1, 8), blocks.get(0));
+  }
+}
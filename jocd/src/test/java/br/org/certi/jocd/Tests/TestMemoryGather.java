@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.DebugPort.AP_REG;
+import br.org.certi.jocd.coresight.MemAp;
+import br.org.certi.jocd.dapaccess.dapexceptions.Error;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMemoryGather {
+
+  private MockDapLink link;
+  private MemAp ap;
+
+  @Before
+  public void setUp() {
+    link = new MockDapLink();
+    DebugPort dp = new DebugPort(link);
+    ap = new MemAp(dp, 0);
+    dp.setAutoIncrementPageSize(0, 0x400);
+  }
+
+  @Test
+  public void testGather() throws Exception {
+    link.readValues.add(0x11111111);
+    link.readValues.add(0x22222222);
+    link.readValues.add(0x00030003);
+    link.readValues.add(0x44332211);
+
+    long[] result = ap.readMemoryGather(
+        new long[]{0x20000000L, 0x20000004L, 0xE000EDF0L, 0x40000001L},
+        new int[]{32, 32, 32, 8});
+
+    assertArrayEquals(new long[]{0x11111111L, 0x22222222L, 0x00030003L, 0x22L}, result);
+    assertEquals(4, link.reads.size());
+    assertFalse(link.inBatch());
+
+    // The second address follows the first one, so only three TAR writes.
+    int tarWrites = 0;
+    for (long[] write : link.writes) {
+      if (write[0] == DebugPort.apAddrToReg(AP_REG.TAR.getValue())) {
+        tarWrites++;
+      }
+    }
+    assertEquals(3, tarWrites);
+  }
+
+  @Test
+  public void testDefaultSize() throws Exception {
+    link.readValues.add(0xCAFEF00D);
+    assertArrayEquals(new long[]{0xCAFEF00DL}, ap.readMemoryGather(new long[]{0x20000000L}, null));
+  }
+
+  @Test(expected = Error.class)
+  public void testSizeMismatch() throws Exception {
+    ap.readMemoryGather(new long[]{0x20000000L, 0x20000004L}, new int[]{32});
+  }
+}
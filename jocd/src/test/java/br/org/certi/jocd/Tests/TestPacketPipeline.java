@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.dapaccess.PacketPipeline;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+public class TestPacketPipeline {
+
+  @Test
+  public void testResponsesInOrder() throws Exception {
+    MockConnectionInterface connection = new MockConnectionInterface();
+    PacketPipeline pipeline = new PacketPipeline(connection);
+    pipeline.start("test");
+    try {
+      for (int i = 0; i < 16; i++) {
+        pipeline.write(new byte[]{(byte) i}, 4);
+      }
+      for (int i = 0; i < 16; i++) {
+        assertArrayEquals(new byte[]{(byte) i}, pipeline.read());
+      }
+    } finally {
+      pipeline.stop();
+    }
+
+    // Never more packets queued than the probe can hold.
+    assertTrue(connection.getMaxOutstanding() <= 4);
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testReadWithoutWrite() throws Exception {
+    PacketPipeline pipeline = new PacketPipeline(new MockConnectionInterface());
+    pipeline.start("test");
+    try {
+      pipeline.read();
+    } finally {
+      pipeline.stop();
+    }
+  }
+
+  @Test
+  public void testStopDropsResponses() throws Exception {
+    PacketPipeline pipeline = new PacketPipeline(new MockConnectionInterface());
+    pipeline.start("test");
+    pipeline.write(new byte[]{1}, 1);
+    pipeline.stop();
+    assertEquals(false, pipeline.hasResponse());
+  }
+}
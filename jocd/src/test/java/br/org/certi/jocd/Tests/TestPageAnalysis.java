@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+
+import br.org.certi.jocd.flash.FlashPage;
+import br.org.certi.jocd.flash.PageAnalysis;
+import br.org.certi.jocd.util.Util;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.junit.Test;
+
+public class TestPageAnalysis {
+
+  private static final int PAGE_SIZE = 1024;
+
+  private static List<FlashPage> createPages(int count) {
+    Random random = new Random(count);
+    List<FlashPage> pages = new ArrayList<FlashPage>();
+    for (int i = 0; i < count; i++) {
+      // Every third page is erased and every fifth one is partially filled.
+      byte[] data = new byte[(i % 5 == 4) ? PAGE_SIZE / 3 : PAGE_SIZE];
+      if (i % 3 == 0) {
+        Arrays.fill(data, (byte) 0xFF);
+      } else {
+        random.nextBytes(data);
+      }
+      pages.add(new FlashPage(i * PAGE_SIZE, PAGE_SIZE, data, 0, 0));
+    }
+    return pages;
+  }
+
+  private static void check(int count) throws InterruptedException {
+    List<FlashPage> pages = createPages(count);
+    PageAnalysis analysis = new PageAnalysis(pages);
+
+    for (int i = 0; i < count; i++) {
+      CRC32 crc = new CRC32();
+      crc.update(Util.fillArray(pages.get(i).data, PAGE_SIZE, (byte) 0xFF));
+      assertEquals("page " + i, crc.getValue(), analysis.getCrc(i));
+      assertEquals("page " + i, i % 3 == 0, analysis.isErased(i));
+    }
+  }
+
+  @Test
+  public void testFewPages() throws InterruptedException {
+    check(10);
+  }
+
+  @Test
+  public void testManyPages() throws InterruptedException {
+    check(2000);
+  }
+}
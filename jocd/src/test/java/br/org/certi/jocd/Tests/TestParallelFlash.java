@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.Jocd;
+import br.org.certi.jocd.Jocd.ErrorCode;
+import br.org.certi.jocd.board.MbedBoard;
+import br.org.certi.jocd.tools.BoardProgressUpdateInterface;
+import br.org.certi.jocd.tools.FlashTool;
+import br.org.certi.jocd.tools.ProgressUpdateInterface;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestParallelFlash {
+
+  @After
+  public void tearDown() {
+    Jocd.connectionInterface = null;
+  }
+
+  @Test
+  public void testUnknownBoards() {
+    Jocd.connectionInterface = new MockConnectionInterface();
+    final Set<String> reported = Collections
+        .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    List<String> uniqueIds = Arrays.asList("1100A", "1100B", "1100C");
+
+    Map<String, ErrorCode> results = Jocd
+        .flashBoards("image.hex", uniqueIds, new BoardProgressUpdateInterface() {
+          @Override
+          public void progressUpdateCallback(String uniqueId, int percentage) {
+            reported.add(uniqueId);
+          }
+        }, 2);
+
+    assertEquals(uniqueIds, new ArrayList<String>(results.keySet()));
+    for (ErrorCode errorCode : results.values()) {
+      assertEquals(ErrorCode.INVALID_BOARD, errorCode);
+    }
+    assertTrue(reported.containsAll(uniqueIds));
+  }
+
+  @Test
+  public void testNoConnectionInterface() {
+    Map<String, ErrorCode> results = Jocd
+        .flashBoards("image.hex", Arrays.asList("1100A"), null, 0);
+
+    assertEquals(ErrorCode.COMMUNICATION_FAILURE, results.get("1100A"));
+  }
+
+  @Test
+  public void testBoardReleasedOnError() throws Exception {
+    // nRF51822-mKIT board, failing after it was chosen.
+    MockDapLink link = new MockDapLink("10700000");
+    MbedBoard board = new MbedBoard(link, null, null);
+
+    ErrorCode errorCode = new FlashTool()
+        .flashBoard(board, new ProgressUpdateInterface() {
+          @Override
+          public void progressUpdateCallback(int percentage) {
+          }
+        }, "missing.hex", false, false, null, 1, null, false);
+
+    assertEquals(ErrorCode.FILE_NOT_FOUND, errorCode);
+    assertTrue(link.closed);
+  }
+}
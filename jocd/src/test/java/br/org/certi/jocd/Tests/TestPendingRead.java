@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import br.org.certi.jocd.core.PendingRead;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestPendingRead {
+
+  /*
+   * Pending read that counts how many times it was resolved.
+   */
+  private static class CountingRead extends PendingRead {
+
+    int resolved = 0;
+    final long value;
+
+    CountingRead(long value) {
+      this.value = value;
+    }
+
+    @Override
+    protected long resolve() {
+      resolved++;
+      return value;
+    }
+  }
+
+  @Test
+  public void testResolvedOnce() throws Exception {
+    CountingRead read = new CountingRead(0xDEADBEEFL);
+    assertEquals(0, read.resolved);
+    assertEquals(0xDEADBEEFL, read.get());
+    assertEquals(0xDEADBEEFL, read.get());
+    assertEquals(1, read.resolved);
+  }
+
+  @Test
+  public void testMap() throws Exception {
+    CountingRead read = new CountingRead(0x12345678L);
+    PendingRead high = read.map(new PendingRead.Function() {
+      @Override
+      public long apply(long value) {
+        return value >>> 16;
+      }
+    });
+    assertEquals(0, read.resolved);
+    assertEquals(0x1234L, high.get());
+    assertEquals(0x12345678L, read.get());
+    assertEquals(1, read.resolved);
+  }
+
+  @Test
+  public void testGetAll() throws Exception {
+    List<PendingRead> reads = new ArrayList<PendingRead>();
+    reads.add(new CountingRead(1));
+    reads.add(PendingRead.of(2));
+    reads.add(new CountingRead(3));
+    assertArrayEquals(new long[]{1, 2, 3}, PendingRead.getAll(reads));
+    assertArrayEquals(new long[]{1, 2, 3}, PendingRead.getAll(reads.toArray(new PendingRead[0])));
+  }
+}
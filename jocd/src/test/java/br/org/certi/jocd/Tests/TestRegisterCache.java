@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.core.Target.CoreRegister;
+import br.org.certi.jocd.core.Target.State;
+import br.org.certi.jocd.coresight.CortexM;
+import br.org.certi.jocd.coresight.CortexM.CortexMRegister;
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.DebugPort.AP_REG;
+import br.org.certi.jocd.coresight.MemAp;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRegisterCache {
+
+  private MockDapLink link;
+  private CortexM core;
+  private List<CoreRegister> regs;
+
+  @Before
+  public void setUp() {
+    link = new MockDapLink();
+    DebugPort dp = new DebugPort(link);
+    core = new CortexM(dp, new MemAp(dp, 0));
+    core.setup(link);
+
+    regs = new ArrayList<CoreRegister>();
+    regs.add(CortexMRegister.R0);
+    regs.add(CortexMRegister.R1);
+  }
+
+  /*
+   * Return true if value was written to DCRDR, through the banked data register BD2.
+   */
+  private boolean wasWritten(long value) {
+    long bd2Reg = DebugPort.apAddrToReg(AP_REG.BD2.getValue());
+    for (long[] write : link.writes) {
+      if (write[0] == bd2Reg && write[1] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testNotCachedWhileRunning() throws Exception {
+    link.readValues.add(0x11);
+    assertEquals(0x11, core.readCoreRegisterRaw(CortexMRegister.R0));
+    link.readValues.add(0x22);
+    assertEquals(0x22, core.readCoreRegisterRaw(CortexMRegister.R0));
+
+    // Writes go to the core right away.
+    core.writeCoreRegisterRaw(CortexMRegister.R0, 0x33);
+    assertTrue(wasWritten(0x33));
+  }
+
+  @Test
+  public void testCachedWhileHalted() throws Exception {
+    link.readValues.add((int) CortexM.S_HALT);
+    assertEquals(State.TARGET_HALTED, core.getState());
+
+    link.readValues.add(0x11);
+    link.readValues.add(0x22);
+    assertArrayEquals(new long[]{0x11, 0x22}, core.readCoreRegisterRaw(regs));
+
+    // The second read doesn't reach the probe.
+    int reads = link.reads.size();
+    assertArrayEquals(new long[]{0x11, 0x22}, core.readCoreRegisterRaw(regs));
+    assertEquals(reads, link.reads.size());
+
+    // Writes stay in the cache until the core runs.
+    core.writeCoreRegisterRaw(CortexMRegister.R1, 0x33);
+    assertEquals(0x33, core.readCoreRegisterRaw(CortexMRegister.R1));
+    assertEquals(reads, link.reads.size());
+    assertFalse(wasWritten(0x33));
+
+    link.readValues.add((int) CortexM.S_HALT);
+    core.resume();
+    assertTrue(wasWritten(0x33));
+
+    // The register write and the resume go in one batch, without reading the state first.
+    link.readValues.add((int) CortexM.S_HALT);
+    core.getState();
+    int flushes = link.flushes;
+    int stateReads = link.reads.size();
+    core.writeCoreRegistersAndRun(new CoreRegister[]{CortexMRegister.PC}, new long[]{0x77}, 1);
+    assertTrue(wasWritten(0x77));
+    assertEquals(flushes + 1, link.flushes);
+    assertEquals(stateReads, link.reads.size());
+
+    // After resume, the registers are read again.
+    link.readValues.add(0x44);
+    assertEquals(0x44, core.readCoreRegisterRaw(CortexMRegister.R0));
+  }
+
+  @Test
+  public void testResetDropsCache() throws Exception {
+    link.readValues.add((int) CortexM.S_HALT);
+    core.getState();
+    link.readValues.add(0x11);
+    assertEquals(0x11, core.readCoreRegisterRaw(CortexMRegister.R0));
+    core.writeCoreRegisterRaw(CortexMRegister.R0, 0x55);
+
+    core.reset(true);
+
+    // The dirty register is dropped with the rest of the cache.
+    assertFalse(wasWritten(0x55));
+    link.readValues.add(0x66);
+    assertEquals(0x66, core.readCoreRegisterRaw(CortexMRegister.R0));
+  }
+}
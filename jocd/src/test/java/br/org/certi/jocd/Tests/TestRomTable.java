@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.coresight.AccessPort;
+import br.org.certi.jocd.coresight.CoreSightComponent;
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.RomTable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRomTable {
+
+  private static final long ROM = 0xE00FF000L;
+  private static final long CHILD_ROM = 0xE0040000L;
+  private static final long SCS = 0xE000E000L;
+  private static final long DWT = 0xE0001000L;
+  private static final long TPIU = 0xE0041000L;
+
+  /*
+   * AP over a sparse memory, that counts the calls reading it.
+   */
+  private static class MemoryAp extends AccessPort {
+
+    final Map<Long, Long> memory = new HashMap<Long, Long>();
+    int reads = 0;
+
+    MemoryAp(int idr) {
+      super(new DebugPort(new MockDapLink()), 0);
+      this.idr = idr;
+      this.romAddr = ROM;
+    }
+
+    long word(long addr) {
+      Long value = memory.get(addr & ~3L);
+      return value == null ? 0 : value;
+    }
+
+    @Override
+    public long[] readBlockMemoryAligned32(long addr, int size) {
+      reads++;
+      long[] words = new long[size];
+      for (int i = 0; i < size; i++) {
+        words[i] = word(addr + i * 4);
+      }
+      return words;
+    }
+
+    @Override
+    public void readBlockMemoryGather(long[] addresses, int[][] dst) {
+      reads++;
+      for (int i = 0; i < addresses.length; i++) {
+        for (int j = 0; j < dst[i].length; j++) {
+          dst[i][j] = (int) word(addresses[i] + j * 4);
+        }
+      }
+    }
+
+    @Override
+    public long[] readMemoryGather(long[] addresses, int[] transferSizes) {
+      reads++;
+      long[] values = new long[addresses.length];
+      for (int i = 0; i < addresses.length; i++) {
+        values[i] = (word(addresses[i]) >> ((addresses[i] & 3) * 8)) & 0xFF;
+      }
+      return values;
+    }
+
+    /*
+     * Store the ID registers of a component: PIDR4-7, PIDR0-3 and CIDR0-3, one byte each.
+     */
+    void component(long address, long cidr, long pidr) {
+      for (int i = 0; i < 4; i++) {
+        memory.put(address + CoreSightComponent.PIDR4 + i * 4, (pidr >> (32 + i * 8)) & 0xFF);
+        memory.put(address + CoreSightComponent.PIDR0 + i * 4, (pidr >> (i * 8)) & 0xFF);
+        memory.put(address + CoreSightComponent.CIDR0 + i * 4, (cidr >> (i * 8)) & 0xFF);
+      }
+    }
+  }
+
+  private MemoryAp ap;
+
+  @Before
+  public void setUp() {
+    RomTable.clearDiscoveredTables();
+    ap = new MemoryAp(0x04770021);
+
+    // Root table with the SCS, the DWT and a child table holding a TPIU.
+    ap.component(ROM, 0xB105100DL, 0x4000BB4C0L);
+    ap.memory.put(ROM, (SCS - ROM) & 0xFFFFF000L | 3);
+    ap.memory.put(ROM + 4, (DWT - ROM) & 0xFFFFF000L | 3);
+    ap.memory.put(ROM + 8, (CHILD_ROM - ROM) & 0xFFFFF000L | 3);
+    ap.component(SCS, 0xB105E00DL, 0x4000BB008L);
+    ap.component(DWT, 0xB105E00DL, 0x4000BB00AL);
+    ap.component(CHILD_ROM, 0xB105100DL, 0x4000BB4C0L);
+    ap.memory.put(CHILD_ROM, (TPIU - CHILD_ROM) & 0xFFFFF000L | 3);
+    ap.component(TPIU, 0xB105900DL, 0x4000BB9A1L);
+    ap.memory.put(TPIU + CoreSightComponent.DEVID, 0xCAL);
+    ap.memory.put(TPIU + CoreSightComponent.DEVTYPE, 0x11L);
+  }
+
+  private void checkTopology(RomTable table) {
+    List<CoreSightComponent> components = table.getComponents();
+    assertEquals(3, components.size());
+    assertEquals(SCS, components.get(0).address);
+    assertEquals("SCS-M0+", components.get(0).name);
+    assertEquals("DWT-M0+", components.get(1).name);
+    assertTrue(components.get(2) instanceof RomTable);
+
+    List<CoreSightComponent> children = ((RomTable) components.get(2)).getComponents();
+    assertEquals(1, children.size());
+    assertEquals("TPIU-M4", children.get(0).name);
+    assertEquals(0xCA, children.get(0).devid);
+    assertEquals(0x11, children.get(0).devtype);
+  }
+
+  @Test
+  public void testIdRegistersReadTogether() throws Exception {
+    RomTable table = RomTable.discover(ap);
+    checkTopology(table);
+
+    // Root: its ID registers, its entries and the ones of its components.
+    // Child: its entries, the ID registers of the TPIU and its DEVID/DEVTYPE.
+    assertEquals(6, ap.reads);
+  }
+
+  @Test
+  public void testTable8() throws Exception {
+    // The same table with 8-bit entries, one byte in each word.
+    for (long base : new long[]{ROM, CHILD_ROM}) {
+      long[] entries = ap.readBlockMemoryAligned32(base, 3);
+      for (int i = 0; i < entries.length; i++) {
+        // 8-bit tables don't set bit 1 of the entries.
+        long entry = entries[i] & ~2L;
+        for (int j = 0; j < 4; j++) {
+          ap.memory.put(base + i * 16 + j * 4, (entry >> (j * 8)) & 0xFF);
+        }
+      }
+    }
+
+    RomTable table = RomTable.discover(ap);
+    checkTopology(table);
+  }
+
+  @Test
+  public void testCachedTopology() throws Exception {
+    RomTable first = RomTable.discover(ap);
+
+    MemoryAp other = new MemoryAp(0x04770021);
+    RomTable second = RomTable.discover(other);
+    assertEquals(0, other.reads);
+    assertNotSame(first, second);
+    checkTopology(second);
+    assertSame(other, second.getComponents().get(0).ap);
+
+    // A different AP is discovered again.
+    MemoryAp different = new MemoryAp(0x24770011);
+    different.memory.putAll(ap.memory);
+    RomTable.discover(different);
+    assertTrue(different.reads > 0);
+  }
+
+  @Test
+  public void testInvalidTableNotCached() throws Exception {
+    // The first read of the AP returns only zeros.
+    MemoryAp empty = new MemoryAp(0x04770021);
+    RomTable first = RomTable.discover(empty);
+    assertFalse(first.valid);
+    assertEquals(0, first.getComponents().size());
+
+    RomTable second = RomTable.discover(ap);
+    assertTrue(ap.reads > 0);
+    checkTopology(second);
+  }
+
+  @Test
+  public void testInvalidChildNotCached() throws Exception {
+    // The child table reads as zeros.
+    MemoryAp partial = new MemoryAp(0x04770021);
+    partial.memory.putAll(ap.memory);
+    for (int i = 0; i < 4; i++) {
+      partial.memory.remove(CHILD_ROM + CoreSightComponent.CIDR0 + i * 4);
+    }
+    RomTable first = RomTable.discover(partial);
+    assertFalse(first.getComponents().get(2).valid);
+
+    RomTable second = RomTable.discover(ap);
+    assertTrue(ap.reads > 0);
+    checkTopology(second);
+  }
+}
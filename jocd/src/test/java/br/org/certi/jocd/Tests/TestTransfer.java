@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
+import br.org.certi.jocd.dapaccess.Transfer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+public class TestTransfer {
+
+  @Test
+  public void testSplitResponse() throws Exception {
+    Transfer transfer = new Transfer(new DapAccessCmsisDap("0000"), (byte) 0, 3,
+        DapAccessCmsisDap.READ, null);
+    ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+    // First packet has only two words.
+    buffer.putInt(0x11223344).putInt(0xFFFFFFFE).flip();
+    assertFalse(transfer.addResponse(buffer));
+    assertEquals(0, buffer.remaining());
+
+    // Second packet has the last word plus data from another transfer.
+    buffer.clear();
+    buffer.putInt(0x01020304).putInt(0x55667788).flip();
+    assertTrue(transfer.addResponse(buffer));
+    assertEquals(4, buffer.remaining());
+
+    assertArrayEquals(new long[]{0x11223344L, 0xFFFFFFFEL, 0x01020304L}, transfer.getResult());
+  }
+
+  @Test
+  public void testByteArrayResponse() throws Exception {
+    Transfer transfer = new Transfer(new DapAccessCmsisDap("0000"), (byte) 0, 1,
+        DapAccessCmsisDap.READ, null);
+    transfer.addResponse(new byte[]{0x78, 0x56, 0x34, (byte) 0x80});
+    assertArrayEquals(new long[]{0x80345678L}, transfer.getResult());
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Fundação CERTI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package br.org.certi.jocd.Tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import br.org.certi.jocd.coresight.AccessPort;
+import br.org.certi.jocd.coresight.DebugPort;
+import br.org.certi.jocd.coresight.DebugPort.AP_REG;
+import br.org.certi.jocd.coresight.MemAp;
+import br.org.certi.jocd.dapaccess.Command;
+import br.org.certi.jocd.dapaccess.DapAccessCmsisDap;
+import br.org.certi.jocd.dapaccess.dapexceptions.TransferMismatchError;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class TestValueMatch {
+
+  private static final byte MASK_WRITE = DapAccessCmsisDap.WRITE | DapAccessCmsisDap.MATCH_MASK;
+  private static final byte AP_DRW_MATCH = DapAccessCmsisDap.AP_ACC | DapAccessCmsisDap.READ
+      | DapAccessCmsisDap.VALUE_MATCH | 0x0C;
+  private static final long DHCSR = 0xE000EDF0L;
+  private static final long S_HALT = 1L << 17;
+
+  @Test
+  public void testEncodeMatch() throws Exception {
+    Command command = new Command(64);
+    assertEquals(1, command.getRequestSpace(1, MASK_WRITE, (byte) 0));
+    command.add(1, MASK_WRITE, new int[]{0x00020000}, 0, (byte) 0);
+    command.add(1, AP_DRW_MATCH, new int[]{0x00020000}, 0, (byte) 0);
+
+    // Value matching is only possible with DAP_Transfer, and both requests carry a word.
+    byte[] packet = command.encodeData();
+    assertArrayEquals(new byte[]{0x05, 0x00, 0x02, MASK_WRITE, 0x00, 0x00, 0x02, 0x00,
+        AP_DRW_MATCH, 0x00, 0x00, 0x02, 0x00, 0x00}, Arrays.copyOf(packet, 14));
+
+    // No data is returned.
+    ByteBuffer response = ByteBuffer.allocate(64);
+    command.decodeData(new byte[]{0x05, 0x02, 0x01}, response);
+    assertEquals(0, response.position());
+  }
+
+  @Test
+  public void testDecodeMismatch() throws Exception {
+    Command command = new Command(64);
+    command.add(1, AP_DRW_MATCH, new int[]{0}, 0, (byte) 0);
+    command.encodeData();
+
+    try {
+      command.decodeData(new byte[]{0x05, 0x00, 0x11}, ByteBuffer.allocate(64));
+      fail("Expected a TransferMismatchError");
+    } catch (TransferMismatchError e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testMemoryMatch() throws Exception {
+    MockDapLink link = new MockDapLink();
+    DebugPort dp = new DebugPort(link);
+    MemAp ap = new MemAp(dp, 0);
+    long cswReg = DebugPort.apAddrToReg(AP_REG.CSW.getValue());
+    long drwReg = DebugPort.apAddrToReg(AP_REG.DRW.getValue());
+
+    link.matchResults.add(false);
+    assertFalse(ap.readMemoryMatch(DHCSR, S_HALT, S_HALT));
+    assertEquals(1, link.matches.size());
+    assertArrayEquals(new long[]{drwReg, S_HALT, S_HALT}, link.matches.get(0));
+
+    // The read is repeated at the same address.
+    long csw = -1;
+    for (long[] write : link.writes) {
+      if (write[0] == cswReg) {
+        csw = write[1];
+      }
+    }
+    assertEquals(AccessPort.CSW_NADDRINC, csw & AccessPort.CSW_ADDRINC);
+
+    // A mismatch leaves the CSW and TAR shadows valid: polling again is a single read.
+    int writes = link.writes.size();
+    assertTrue(ap.readMemoryMatch(DHCSR, S_HALT, S_HALT));
+    assertEquals(writes, link.writes.size());
+    assertEquals(2, link.matches.size());
+  }
+}
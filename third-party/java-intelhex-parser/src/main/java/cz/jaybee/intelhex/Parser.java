@@ -26,31 +26,65 @@
 package cz.jaybee.intelhex;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Main Intel HEX parser class
  *
+ * The input is decoded byte by byte from a reusable buffer: records are not
+ * turned into Strings and the checksum is summed while the hex digits are
+ * decoded.
+ *
  * @author Jan Breuer
  * @author Kristian Sloth Lauszus
  * @author riilabs
  */
 public class Parser {
 
-    private final BufferedReader reader;
+    private static final int BUFFER_SIZE = 8192;
+    // ":" + 2 hex digits for each of length, address (2), type, 255 data and checksum.
+    private static final int MAX_RECORD_BYTES = 255 + 5;
+    private static final int INVALID_DIGIT = -1;
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++) {
+            HEX_VALUES[i] = INVALID_DIGIT;
+        }
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    private final InputStream stream;
+    private final Reader reader;
+    private final ByteBuffer source;
     private DataListener dataListener = null;
-    private static final int HEX = 16;
     private boolean eof = false;
     private int recordIdx = 0;
     private long upperAddress = 0;
     private long startAddress = 0;
 
+    // Input buffer and the decoded bytes of the current record.
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private char[] chars = null;
+    private int bufferPos = 0;
+    private int bufferEnd = 0;
+    private final byte[] hexRecord = new byte[MAX_RECORD_BYTES];
+
     /**
      * Constructor of the parser with reader
      *
      * @param reader
      */
     public Parser(Reader reader) {
-        this.reader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+        this.stream = null;
+        this.reader = reader;
+        this.source = null;
     }
 
     /**
@@ -59,7 +93,21 @@ public class Parser {
      * @param stream
      */
     public Parser(InputStream stream) {
-        this.reader = new BufferedReader(new InputStreamReader(stream));
+        this.stream = stream;
+        this.reader = null;
+        this.source = null;
+    }
+
+    /**
+     * Constructor of the parser with the contents of a buffer, from its
+     * position to its limit. The buffer position is not modified.
+     *
+     * @param source
+     */
+    public Parser(ByteBuffer source) {
+        this.stream = null;
+        this.reader = null;
+        this.source = source.duplicate();
     }
 
     /**
@@ -72,74 +120,128 @@ public class Parser {
     }
 
     /**
-     * Parse one line of Intel HEX file
+     * Refill the input buffer
      *
-     * @param string record
-     * @return parsed record
-     * @throws IntelHexException
+     * @return false at the end of the input
+     * @throws IOException
      */
-    private Record parseRecord(String record) throws IntelHexException {
-        Record result = new Record();
-        // check, if there wasn an accidential EOF record
-        if (eof) {
-            throw new IntelHexException("Data after eof (" + recordIdx + ")");
+    private boolean fill() throws IOException {
+        int count;
+        if (source != null) {
+            count = Math.min(source.remaining(), buffer.length);
+            source.get(buffer, 0, count);
+        } else if (stream != null) {
+            count = stream.read(buffer);
+        } else {
+            if (chars == null) {
+                chars = new char[BUFFER_SIZE];
+            }
+            count = reader.read(chars);
+            for (int i = 0; i < count; i++) {
+                char c = chars[i];
+                // Anything outside of ASCII is not valid in a record anyway.
+                buffer[i] = (c < 0x80) ? (byte) c : (byte) 0xFF;
+            }
         }
+        bufferPos = 0;
+        bufferEnd = Math.max(count, 0);
+        return count > 0;
+    }
 
-        // every IntelHEX record must start with ":"
-        if (!record.startsWith(":")) {
-            throw new IntelHexException("Invalid Intel HEX record (" + recordIdx + ")");
+    /**
+     * Read the next input byte
+     *
+     * @return byte value or -1 at the end of the input
+     * @throws IOException
+     */
+    private int next() throws IOException {
+        if (bufferPos == bufferEnd && !fill()) {
+            return -1;
         }
+        return buffer[bufferPos++] & 0xFF;
+    }
 
-        int lineLength = record.length();
-        byte[] hexRecord = new byte[lineLength / 2];
-
-        // sum of all bytes modulo 256 (including checksum) shuld be 0
+    /**
+     * Decode the hex digits of one record, after the ":", up to the end of the
+     * line. The checksum is verified on the way.
+     *
+     * @return number of decoded bytes
+     * @throws IntelHexException
+     * @throws IOException
+     */
+    private int decodeRecord() throws IntelHexException, IOException {
+        int count = 0;
         int sum = 0;
-        for (int i = 0; i < hexRecord.length; i++) {
-            String num = record.substring(2 * i + 1, 2 * i + 3);
-            hexRecord[i] = (byte) Integer.parseInt(num, HEX);
-            sum += hexRecord[i] & 0xff;
+        int c;
+        while ((c = next()) != -1 && c != '\n' && c != '\r') {
+            int high = HEX_VALUES[c];
+            int low = HEX_VALUES[Math.max(next(), 0)];
+            if (high == INVALID_DIGIT || low == INVALID_DIGIT) {
+                throw new IntelHexException("Invalid Intel HEX record (" + recordIdx + ")");
+            }
+            if (count == hexRecord.length) {
+                throw new IntelHexException("Invalid record length (" + recordIdx + ")");
+            }
+            int value = (high << 4) | low;
+            hexRecord[count++] = (byte) value;
+            sum += value;
         }
-        sum &= 0xff;
 
-        if (sum != 0) {
+        if ((sum & 0xff) != 0) {
             throw new IntelHexException("Invalid checksum (" + recordIdx + ")");
         }
+        return count;
+    }
+
+    /**
+     * Parse and process one record, whose ":" has already been read
+     *
+     * @throws IntelHexException
+     * @throws IOException
+     */
+    private void parseRecord() throws IntelHexException, IOException {
+        // check, if there wasn an accidential EOF record
+        if (eof) {
+            throw new IntelHexException("Data after eof (" + recordIdx + ")");
+        }
+
+        int count = decodeRecord();
 
         // if the length field does not correspond with line length
-        result.length = hexRecord[0];
-        if ((result.length + 5) != hexRecord.length) {
+        int length = (count > 0) ? (hexRecord[0] & 0xFF) : -1;
+        if ((length + 5) != count) {
             throw new IntelHexException("Invalid record length (" + recordIdx + ")");
         }
-        // length is OK, copy data
-        result.data = new byte[result.length];
-        System.arraycopy(hexRecord, 4, result.data, 0, result.length);
 
         // build lower part of data address
-        result.address = ((hexRecord[1] & 0xFF) << 8) + (hexRecord[2] & 0xFF);
+        int address = ((hexRecord[1] & 0xFF) << 8) + (hexRecord[2] & 0xFF);
 
         // determine record type
-        result.type = RecordType.fromInt(hexRecord[3] & 0xFF);
-        if (result.type == RecordType.UNKNOWN) {
+        RecordType type = RecordType.fromInt(hexRecord[3] & 0xFF);
+        if (type == RecordType.UNKNOWN) {
             throw new IntelHexException("Unsupported record type " + (hexRecord[3] & 0xFF) + " (" + recordIdx + ")");
         }
 
-        return result;
+        processRecord(type, address, length);
     }
 
     /**
      * Process parsed record, copute correct address, emit events
      *
-     * @param record
+     * @param type
+     * @param address lower part of the address
+     * @param length data length, the data starts at hexRecord[4]
      * @throws IntelHexException
      */
-    private void processRecord(Record record) throws IntelHexException {
+    private void processRecord(RecordType type, int address, int length) throws IntelHexException {
         // build full address
-        long addr = record.address | upperAddress;
-        switch (record.type) {
+        long addr = address | upperAddress;
+        switch (type) {
             case DATA:
                 if (dataListener != null) {
-                    dataListener.data(addr, record.data);
+                    byte[] data = new byte[length];
+                    System.arraycopy(hexRecord, 4, data, 0, length);
+                    dataListener.data(addr, data);
                 }
                 break;
             case EOF:
@@ -149,8 +251,8 @@ public class Parser {
                 eof = true;
                 break;
             case EXT_LIN:
-                if (record.length == 2) {
-                    upperAddress = ((record.data[0] & 0xFF) << 8) + (record.data[1] & 0xFF);
+                if (length == 2) {
+                    upperAddress = ((hexRecord[4] & 0xFF) << 8) + (hexRecord[5] & 0xFF);
                     upperAddress <<= 16; // ELA is bits 16-31 of the segment base address (SBA), so shift left 16 bits
                 } else {
                     throw new IntelHexException("Invalid EXT_LIN record (" + recordIdx + ")");
@@ -158,33 +260,25 @@ public class Parser {
 
                 break;
             case EXT_SEG:
-                if (record.length == 2) {
-                    upperAddress = ((record.data[0] & 0xFF) << 8) + (record.data[1] & 0xFF);
+                if (length == 2) {
+                    upperAddress = ((hexRecord[4] & 0xFF) << 8) + (hexRecord[5] & 0xFF);
                     upperAddress <<= 4; // ESA is bits 4-19 of the segment base address (SBA), so shift left 4 bits
                 } else {
                     throw new IntelHexException("Invalid EXT_SEG record (" + recordIdx + ")");
                 }
                 break;
             case START_LIN:
-                if (record.length == 4) {
-                    startAddress = 0;
-                    for (byte c : record.data) {
-                        startAddress = startAddress << 8;
-                        startAddress |= (c & 0xFF);
-                    }
+                if (length == 4) {
+                    startAddress = readStartAddress();
                 } else {
-                    throw new IntelHexException("Invalid START_LIN record at line #" + recordIdx + " " + record);
+                    throw new IntelHexException("Invalid START_LIN record at line #" + recordIdx + " " + toRecord(type, address, length));
                 }
                 break;
             case START_SEG:
-                if (record.length == 4) {
-                    startAddress = 0;
-                    for (byte c : record.data) {
-                        startAddress = startAddress << 8;
-                        startAddress |= (c & 0xFF);
-                    }
+                if (length == 4) {
+                    startAddress = readStartAddress();
                 } else {
-                    throw new IntelHexException("Invalid START_SEG record at line #" + recordIdx + " " + record);
+                    throw new IntelHexException("Invalid START_SEG record at line #" + recordIdx + " " + toRecord(type, address, length));
                 }
                 break;
             case UNKNOWN:
@@ -193,6 +287,28 @@ public class Parser {
 
     }
 
+    private long readStartAddress() {
+        long result = 0;
+        for (int i = 4; i < 8; i++) {
+            result = result << 8;
+            result |= (hexRecord[i] & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * Build a Record of the current record, for error messages
+     */
+    private Record toRecord(RecordType type, int address, int length) {
+        Record result = new Record();
+        result.type = type;
+        result.address = address;
+        result.length = length;
+        result.data = new byte[length];
+        System.arraycopy(hexRecord, 4, result.data, 0, length);
+        return result;
+    }
+
     /**
      * Return program start address/reset address. May not be at the beggining
      * of the data.
@@ -214,15 +330,22 @@ public class Parser {
         recordIdx = 1;
         upperAddress = 0;
         startAddress = 0;
-        String recordStr;
 
-        while ((recordStr = reader.readLine()) != null) {
-            // Ignore if this is a blank line.
-            if (recordStr.isEmpty()) {
+        int c;
+        while ((c = next()) != -1) {
+            // Skip line endings, which also skips blank lines.
+            if (c == '\n' || c == '\r') {
                 continue;
             }
-            Record record = parseRecord(recordStr);
-            processRecord(record);
+
+            // every IntelHEX record must start with ":"
+            if (c != ':') {
+                if (eof) {
+                    throw new IntelHexException("Data after eof (" + recordIdx + ")");
+                }
+                throw new IntelHexException("Invalid Intel HEX record (" + recordIdx + ")");
+            }
+            parseRecord();
             recordIdx++;
         }
 
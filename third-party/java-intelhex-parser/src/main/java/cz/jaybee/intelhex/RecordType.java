@@ -41,6 +41,18 @@ public enum RecordType {
     UNKNOWN(0xFF);
     int id;
 
+    // Lookup table from the record type value, values() copies its array on each call.
+    private static final RecordType[] BY_ID = new RecordType[256];
+
+    static {
+        for (int i = 0; i < BY_ID.length; i++) {
+            BY_ID[i] = UNKNOWN;
+        }
+        for (RecordType d : RecordType.values()) {
+            BY_ID[d.id] = d;
+        }
+    }
+
     RecordType(int id) {
         this.id = id;
     }
@@ -61,11 +73,9 @@ public enum RecordType {
      * @return record type enum value
      */
     public static RecordType fromInt(int id) {
-        for (RecordType d : RecordType.values()) {
-            if (d.id == id) {
-                return d;
-            }
+        if (id < 0 || id >= BY_ID.length) {
+            return RecordType.UNKNOWN;
         }
-        return RecordType.UNKNOWN;
+        return BY_ID[id];
     }
 }